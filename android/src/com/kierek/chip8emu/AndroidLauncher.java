@@ -11,6 +11,7 @@ public class AndroidLauncher extends AndroidApplication {
 	protected void onCreate (Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		AndroidApplicationConfiguration config = new AndroidApplicationConfiguration();
-		initialize(new Chip8Emu(), config);
+		//emulating off the GL thread lets it sleep until a frame actually changes
+		initialize(new Chip8Emu(true), config);
 	}
 }
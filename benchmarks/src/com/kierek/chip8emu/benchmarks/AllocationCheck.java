@@ -0,0 +1,60 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.SoundOutput;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Checks that emulating a frame allocates nothing once the machine is warmed up,
+ * for every engine on every bundled ROM. Exits with status 1 if anything allocates.
+ * Needs a HotSpot based JVM for per-thread allocation counters.
+ */
+public class AllocationCheck {
+
+    private static final String[] ROMS = {"breakout.rom", "invaders.rom", "maze.rom", "pong.rom", "tank.rom", "tetris.rom"};
+    private static final String[] ENGINES = {"switch", "table", "blocks", "compiled"};
+
+    //enough for the JIT to settle and for the caching engines to see the game loop
+    private static final int WARMUP_FRAMES = 20000;
+    private static final int MEASURED_FRAMES = 10000;
+
+    public static void main(String[] args) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        boolean allocated = false;
+
+        for (String rom : ROMS) {
+            for (String engine : ENGINES) {
+                byte[] image = Roms.read(rom);
+                KeyState keys = new KeyState();
+                Machine machine = new Machine(keys, SoundOutput.NONE, Roms.engine(engine, image));
+                machine.loadROM(image);
+                machine.runFrames(WARMUP_FRAMES);
+
+                long bytes = measure(threads, thread, machine);
+                //a late recompilation can allocate once on its own, only allocating again counts
+                if (bytes > 0)
+                    bytes = measure(threads, thread, machine);
+
+                System.out.println(String.format(Locale.US, "%-14s %-9s %10.3f bytes/frame",
+                        rom, engine, (double) bytes / MEASURED_FRAMES));
+                allocated |= bytes > 0;
+            }
+        }
+
+        if (allocated) {
+            System.out.println("FAILED: frames allocate after warm-up");
+            System.exit(1);
+        }
+        System.out.println("OK: no allocation per frame after warm-up");
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threads, long thread, Machine machine) {
+        long before = threads.getThreadAllocatedBytes(thread);
+        machine.runFrames(MEASURED_FRAMES);
+        return threads.getThreadAllocatedBytes(thread) - before;
+    }
+}
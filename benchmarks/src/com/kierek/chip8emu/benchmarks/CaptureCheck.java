@@ -0,0 +1,241 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.emu.FrameBuffer;
+import com.kierek.chip8emu.emu.FrameCapture;
+import com.kierek.chip8emu.emu.FrameEncoder;
+import com.kierek.chip8emu.emu.GifEncoder;
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.SoundOutput;
+import com.kierek.chip8emu.emu.TableEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Captures every bundled ROM, with random key presses, into a GIF and decodes it again with a strict decoder:
+ * every LZW code has to be in the table at the width the table size calls for, and every image has to hold
+ * exactly its own pixels. Every decoded frame has to show one of the captured frames, in order.
+ * Exits with status 1 if any GIF doesn't decode to what was captured.
+ */
+public class CaptureCheck {
+
+    private static final String[] ROMS = {"breakout.rom", "invaders.rom", "maze.rom", "pong.rom", "tank.rom", "tetris.rom"};
+
+    private static final int FRAMES = 1200;
+    //a fuzzed key changes this often
+    private static final int FUZZ_INTERVAL = 10;
+    //odd and even scales end images on different code widths
+    private static final int[] SCALES = {1, 3, 4};
+
+    private static final int MAX_CODE_SIZE = 12;
+
+    public static void main(String[] args) throws IOException {
+        boolean failed = false;
+        for (String rom : ROMS) {
+            for (int scale : SCALES) {
+                String result;
+                try {
+                    result = check(rom, scale);
+                } catch (IllegalStateException e) {
+                    result = "FAILED: " + e.getMessage();
+                    failed = true;
+                }
+                System.out.println(String.format(Locale.US, "%-14s x%d  %s", rom, scale, result));
+            }
+        }
+
+        if (failed) {
+            System.out.println("FAILED: captures don't decode to what was captured");
+            System.exit(1);
+        }
+        System.out.println("OK: every capture decodes strictly");
+    }
+
+    private static String check(String rom, int scale) throws IOException {
+        final ByteArrayOutputStream gif = new ByteArrayOutputStream();
+        final GifEncoder encoder = new GifEncoder(gif, scale);
+        final List<FrameBuffer> captured = new ArrayList<FrameBuffer>();
+        FrameEncoder recorder = new FrameEncoder() {
+            @Override
+            public void frame(FrameBuffer pixels, long frame) throws IOException {
+                FrameBuffer copy = new FrameBuffer();
+                copy.set(pixels);
+                captured.add(copy);
+                encoder.frame(pixels, frame);
+            }
+
+            @Override
+            public void finish(long frame) throws IOException {
+                encoder.finish(frame);
+            }
+        };
+
+        byte[] image = Roms.read(rom);
+        KeyState keys = new KeyState();
+        final Machine machine = new Machine(keys, SoundOutput.NONE, new TableEngine());
+        machine.loadROM(image);
+        final FrameCapture capture = new FrameCapture(recorder);
+        capture.setBlocking(true);
+        capture.start();
+        machine.getScheduler().setFrameListener(new Runnable() {
+            @Override
+            public void run() {
+                capture.capture(machine.getFrameBuffer(), machine.getScheduler().getFrame());
+            }
+        });
+
+        Random random = new Random(0);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            if (frame % FUZZ_INTERVAL == 0)
+                keys.setKey(random.nextInt(16), random.nextBoolean());
+            machine.runFrames(1);
+        }
+        capture.stop();
+
+        int decoded = decode(gif.toByteArray(), encoder.getWidth(), encoder.getHeight(), scale, captured);
+        return decoded + " of " + captured.size() + " frames, " + gif.size() + " bytes";
+    }
+
+    //number of images, each matched against the captured frames from the last match on
+    private static int decode(byte[] gif, int width, int height, int scale, List<FrameBuffer> captured) {
+        byte[] canvas = new byte[width * height];
+        //header, screen descriptor and the 4 color global table
+        int at = 6 + 7 + 4 * 3;
+        int images = 0;
+        int next = 0;
+
+        while (true) {
+            int block = gif[at++] & 0xFF;
+            if (block == 0x3B) break;
+            if (block == 0x21) {
+                at++;
+                at = skipSubBlocks(gif, at);
+                continue;
+            }
+            if (block != 0x2C)
+                throw new IllegalStateException("unexpected block " + block + " at " + (at - 1));
+
+            int left = readShort(gif, at);
+            int top = readShort(gif, at + 2);
+            int imageWidth = readShort(gif, at + 4);
+            int imageHeight = readShort(gif, at + 6);
+            at += 9;
+            int minCodeSize = gif[at++];
+
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            while (gif[at] != 0) {
+                int length = gif[at] & 0xFF;
+                data.write(gif, at + 1, length);
+                at += length + 1;
+            }
+            at++;
+
+            byte[] pixels = lzw(data.toByteArray(), minCodeSize, imageWidth * imageHeight);
+            for (int y = 0; y < imageHeight; y++) {
+                System.arraycopy(pixels, y * imageWidth, canvas, (top + y) * width + left, imageWidth);
+            }
+            images++;
+
+            while (next < captured.size() && !shows(canvas, width, scale, captured.get(next))) next++;
+            if (next == captured.size())
+                throw new IllegalStateException("image " + images + " isn't any captured frame");
+            next++;
+        }
+        return images;
+    }
+
+    private static byte[] lzw(byte[] data, int minCodeSize, int count) {
+        int clear = 1 << minCodeSize;
+        int end = clear + 1;
+        //every entry is an earlier entry plus one pixel
+        int[] prefix = new int[1 << MAX_CODE_SIZE];
+        byte[] suffix = new byte[1 << MAX_CODE_SIZE];
+        int[] length = new int[1 << MAX_CODE_SIZE];
+        for (int i = 0; i < clear; i++) {
+            suffix[i] = (byte) i;
+            length[i] = 1;
+        }
+
+        byte[] pixels = new byte[count];
+        int written = 0;
+        int codeSize = minCodeSize + 1;
+        int tableSize = end + 1;
+        int previous = -1;
+        long bit = 0;
+
+        while (true) {
+            if ((bit + codeSize + 7) / 8 > data.length)
+                throw new IllegalStateException("image data ends without an end code");
+            int code = 0;
+            for (int i = 0; i < codeSize; i++, bit++) {
+                code |= ((data[(int) (bit >>> 3)] >>> (bit & 7)) & 1) << i;
+            }
+
+            if (code == clear) {
+                codeSize = minCodeSize + 1;
+                tableSize = end + 1;
+                previous = -1;
+                continue;
+            }
+            if (code == end) break;
+            if (code > tableSize || (code == tableSize && previous == -1))
+                throw new IllegalStateException("bad code " + code + ", table " + tableSize);
+
+            if (previous != -1 && tableSize < prefix.length) {
+                prefix[tableSize] = previous;
+                length[tableSize] = length[previous] + 1;
+                //the new entry ends with the first pixel of the code, which is itself when it's the new entry
+                suffix[tableSize] = firstPixel(code == tableSize ? previous : code, prefix, suffix, length);
+                tableSize++;
+            }
+
+            int codeLength = length[code];
+            if (written + codeLength > count)
+                throw new IllegalStateException("more than " + count + " pixels");
+            int entry = code;
+            for (int i = codeLength - 1; i >= 0; i--) {
+                pixels[written + i] = suffix[entry];
+                entry = prefix[entry];
+            }
+            written += codeLength;
+            previous = code;
+
+            if (tableSize == 1 << codeSize && codeSize < MAX_CODE_SIZE)
+                codeSize++;
+        }
+
+        if (written != count)
+            throw new IllegalStateException(written + " pixels instead of " + count);
+        return pixels;
+    }
+
+    private static byte firstPixel(int code, int[] prefix, byte[] suffix, int[] length) {
+        while (length[code] > 1) code = prefix[code];
+        return suffix[code];
+    }
+
+    //low resolution pixels cover 2x2 high resolution ones, like FrameCapture draws them
+    private static boolean shows(byte[] canvas, int width, int scale, FrameBuffer frame) {
+        int factor = frame.isHighResolution() ? scale : scale * 2;
+        for (int i = 0; i < canvas.length; i++) {
+            int x = i % width / factor;
+            int y = i / width / factor;
+            if (canvas[i] != frame.getPixel(x, y)) return false;
+        }
+        return true;
+    }
+
+    private static int skipSubBlocks(byte[] gif, int at) {
+        while (gif[at] != 0) at += (gif[at] & 0xFF) + 1;
+        return at + 1;
+    }
+
+    private static int readShort(byte[] gif, int at) {
+        return (gif[at] & 0xFF) | (gif[at + 1] & 0xFF) << 8;
+    }
+}
@@ -0,0 +1,61 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.emu.FrameBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one DXYN worth of sprite drawing, at positions that do and don't wrap around the screen edges,
+ * in the 64x32 and the 128x64 mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DisplayBenchmark {
+
+    @Param({"1", "5", "15"})
+    public int height;
+
+    @Param({"false", "true"})
+    public boolean highResolution;
+
+    private FrameBuffer frameBuffer;
+    private int[] sprite;
+    private int position;
+
+    @Setup
+    public void setup() {
+        frameBuffer = new FrameBuffer();
+        frameBuffer.setHighResolution(highResolution);
+        sprite = new int[height];
+
+        Random random = new Random(height);
+        for (int i = 0; i < height; i++) {
+            sprite[i] = random.nextInt(256);
+        }
+    }
+
+    @Benchmark
+    public boolean drawSprite() {
+        //walks over the whole screen so wrapping and non-wrapping positions both show up
+        int width = frameBuffer.getWidth();
+        position = (position + 7) % (width * frameBuffer.getHeight());
+        return frameBuffer.drawSprite(position % width, position / width, sprite, 0, height);
+    }
+}
@@ -0,0 +1,59 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Graphics;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+
+/**
+ * Installs do-nothing libGDX globals so rendering code can run without a GL context.
+ * Every GL call is a no-op, so the render benchmarks measure the CPU side of a frame only.
+ */
+final class GlStub implements InvocationHandler {
+
+    private GlStub() {
+    }
+
+    static void install() {
+        GdxNativesLoader.load();
+
+        GlStub handler = new GlStub();
+        ClassLoader loader = GlStub.class.getClassLoader();
+        Gdx.gl = Gdx.gl20 = (GL20) Proxy.newProxyInstance(loader, new Class<?>[]{GL20.class}, handler);
+        Gdx.app = (Application) Proxy.newProxyInstance(loader, new Class<?>[]{Application.class}, handler);
+        Gdx.graphics = (Graphics) Proxy.newProxyInstance(loader, new Class<?>[]{Graphics.class}, handler);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+
+        if (method.getDeclaringClass() == Object.class) {
+            if (name.equals("hashCode")) return System.identityHashCode(proxy);
+            if (name.equals("equals")) return proxy == args[0];
+            return "GlStub";
+        }
+
+        //shaders compile and link, but expose no attributes or uniforms
+        if (name.equals("glGetShaderiv") || name.equals("glGetProgramiv")) {
+            int status = (Integer) args[1];
+            ((IntBuffer) args[2]).put(0, status == GL20.GL_COMPILE_STATUS || status == GL20.GL_LINK_STATUS ? 1 : 0);
+            return null;
+        }
+
+        Class<?> type = method.getReturnType();
+        //handles and locations have to be valid, everything else can stay empty
+        if (type == int.class) return 1;
+        if (type == long.class) return 0L;
+        if (type == float.class) return 0f;
+        if (type == boolean.class) return false;
+        if (type == String.class) return "";
+        return null;
+    }
+}
@@ -0,0 +1,64 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.Processor;
+import com.kierek.chip8emu.emu.SoundOutput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instruction throughput of every engine on every bundled ROM, reported in instructions per second.
+ * With idle skipping the skipped turns of wait loops count as executed, as they do for the emulated clock,
+ * so only the runs without it compare work every engine really did. The switch engine never skips.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProcessorBenchmark {
+
+    //instructions per invocation, one emulated frame at a very fast clock
+    private static final int INSTRUCTIONS = 1000;
+
+    @Param({"breakout.rom", "invaders.rom", "maze.rom", "pong.rom", "tank.rom", "tetris.rom"})
+    public String rom;
+
+    @Param({"switch", "table", "blocks", "compiled"})
+    public String engine;
+
+    @Param({"false", "true"})
+    public boolean idleSkipping;
+
+    private Processor processor;
+
+    @Setup
+    public void setup() {
+        byte[] image = Roms.read(rom);
+        Machine machine = new Machine(new KeyState(), SoundOutput.NONE, Roms.engine(engine, image));
+        machine.loadROM(image);
+        processor = machine.getProcessor();
+        processor.setIdleSkipping(idleSkipping);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public void instructions() {
+        processor.runFrame(INSTRUCTIONS);
+    }
+}
@@ -0,0 +1,62 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.Renderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-frame cost of Renderer.render on the CPU side, GL calls are stubbed out by {@link GlStub}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RenderBenchmark {
+
+    private Machine machine;
+    private Renderer renderer;
+
+    @Setup
+    public void setup() {
+        GlStub.install();
+
+        //a few seconds into the game there is something on the screen
+        machine = new Machine(new KeyState());
+        machine.loadROM(Roms.read("breakout.rom"));
+        machine.runFrames(180);
+
+        renderer = new Renderer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.dispose();
+    }
+
+    @Benchmark
+    public void render() {
+        renderer.render(machine.getFrameBuffer());
+    }
+
+    @Benchmark
+    public void emulateAndRender() {
+        machine.runFrames(1);
+        renderer.render(machine.getFrameBuffer());
+    }
+}
@@ -0,0 +1,36 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.desktop.aot.RomCompiler;
+import com.kierek.chip8emu.emu.BlockCacheEngine;
+import com.kierek.chip8emu.emu.CompiledEngine;
+import com.kierek.chip8emu.emu.ExecutionEngine;
+import com.kierek.chip8emu.emu.FileRomSource;
+import com.kierek.chip8emu.emu.RomSource;
+import com.kierek.chip8emu.emu.SwitchEngine;
+import com.kierek.chip8emu.emu.TableEngine;
+
+import java.io.File;
+
+/**
+ * Shared setup for the benchmarks. ROMs are read from the "roms" directory of the working directory,
+ * the jmh task runs in android/assets, override with -Dchip8.roms=path.
+ */
+final class Roms {
+
+    static final RomSource SOURCE = new FileRomSource(new File(System.getProperty("chip8.roms", "roms")));
+
+    private Roms() {
+    }
+
+    static byte[] read(String name) {
+        return SOURCE.read(name);
+    }
+
+    static ExecutionEngine engine(String name, byte[] rom) {
+        if (name.equals("switch")) return new SwitchEngine();
+        if (name.equals("table")) return new TableEngine();
+        if (name.equals("blocks")) return new BlockCacheEngine();
+        if (name.equals("compiled")) return new CompiledEngine(RomCompiler.compile(rom));
+        throw new IllegalArgumentException("unknown engine " + name);
+    }
+}
@@ -0,0 +1,65 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.Platform;
+import com.kierek.chip8emu.emu.SaveState;
+import com.kierek.chip8emu.emu.SoundOutput;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of snapshotting and restoring a running machine into a reused buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SaveStateBenchmark {
+
+    @Param({"switch", "blocks"})
+    public String engine;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(SaveState.size(Platform.CHIP_8));
+    private Machine machine;
+
+    @Setup
+    public void setup() {
+        byte[] image = Roms.read("invaders.rom");
+        machine = new Machine(new KeyState(), SoundOutput.NONE, Roms.engine(engine, image));
+        machine.loadROM(image);
+        machine.runFrames(600);
+
+        buffer.clear();
+        machine.saveState(buffer);
+    }
+
+    @Benchmark
+    public ByteBuffer save() {
+        buffer.clear();
+        machine.saveState(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public Machine load() {
+        buffer.rewind();
+        machine.loadState(buffer);
+        return machine;
+    }
+}
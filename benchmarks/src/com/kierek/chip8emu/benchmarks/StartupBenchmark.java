@@ -0,0 +1,68 @@
+package com.kierek.chip8emu.benchmarks;
+
+import com.kierek.chip8emu.desktop.aot.RomCompiler;
+import com.kierek.chip8emu.emu.CompiledProgram;
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.ProgramAnalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting a game ready: reading the file, loadROM, the static analysis loadROM gets from its cache
+ * when the ROM was seen before, and the optional ahead-of-time compilation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StartupBenchmark {
+
+    @Param({"invaders.rom", "tetris.rom"})
+    public String rom;
+
+    private byte[] image;
+    private Machine machine;
+
+    @Setup
+    public void setup() {
+        image = Roms.read(rom);
+        machine = new Machine(new KeyState());
+    }
+
+    @Benchmark
+    public Machine loadFromMemory() {
+        machine.loadROM(image);
+        return machine;
+    }
+
+    @Benchmark
+    public Machine loadFromFile() {
+        machine.loadROM(Roms.SOURCE, rom);
+        return machine;
+    }
+
+    @Benchmark
+    public ProgramAnalysis analyze() {
+        return ProgramAnalysis.analyze(image);
+    }
+
+    @Benchmark
+    public CompiledProgram compile() {
+        return RomCompiler.compile(image);
+    }
+}
@@ -2,42 +2,233 @@ package com.kierek.chip8emu;
 
 import com.badlogic.gdx.Game;
 import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.audio.AudioDevice;
+import com.badlogic.gdx.files.FileHandle;
+import com.kierek.chip8emu.emu.AudioThread;
+import com.kierek.chip8emu.emu.EmulationThread;
+import com.kierek.chip8emu.emu.FrameBuffer;
+import com.kierek.chip8emu.emu.FrameCapture;
+import com.kierek.chip8emu.emu.GifEncoder;
+import com.kierek.chip8emu.emu.GdxRomSource;
 import com.kierek.chip8emu.emu.InputHandler;
-import com.kierek.chip8emu.emu.Processor;
+import com.kierek.chip8emu.emu.InputRecorder;
+import com.kierek.chip8emu.emu.KeyEventQueue;
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
 import com.kierek.chip8emu.emu.Renderer;
+import com.kierek.chip8emu.emu.Rewind;
+import com.kierek.chip8emu.emu.RomLibrary;
+import com.kierek.chip8emu.emu.RunAhead;
+import com.kierek.chip8emu.emu.SampleRing;
+import com.kierek.chip8emu.emu.SaveState;
+import com.kierek.chip8emu.emu.Scheduler;
+import com.kierek.chip8emu.emu.SoundSynthesizer;
+import com.kierek.chip8emu.emu.TableEngine;
+import com.kierek.chip8emu.emu.Telemetry;
+import com.kierek.chip8emu.emu.TelemetryOverlay;
+import com.kierek.chip8emu.emu.TripleBuffer;
 import com.kierek.chip8emu.screens.GameChooser;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+
 public class Chip8Emu extends Game {
 
     private static final String TAG = "Chip8Emu";
 
-    private Processor mProcessor;
+    private static final String TELEMETRY_FILE = "telemetry.csv";
+
+    //GIF pixels per high resolution pixel
+    private static final int CAPTURE_SCALE = 4;
+
+    private static final String ROM_DIRECTORY = "roms";
+    private static final String LIBRARY_INDEX = "roms.index";
+
+    //run the machine on its own thread instead of inside render()
+    private final boolean mThreaded;
+
+    private RomLibrary mLibrary;
+
+    private String mGameFile;
+    private Machine mMachine;
     private Renderer mRenderer;
     private InputHandler mInput;
 
+    //null when the backend has no audio
+    private AudioDevice mAudioDevice;
+    private AudioThread mAudio;
+
+    private KeyState mKeys;
+    private KeyEventQueue mKeyEvents;
+
+    //only used with threaded emulation
+    private TripleBuffer mFrames;
+    private EmulationThread mEmulation;
+
+    private Rewind mRewind;
+    //everything typed since the game started or a state was loaded
+    private InputRecorder mRecorder;
+    //null when not capturing, only touched by whoever runs the machine
+    private FrameCapture mCapture;
+
+    //frames to run ahead of the game, 0 to show the game as it is
+    private int mRunAheadFrames;
+    private RunAhead mRunAhead;
+    private long mRunAheadReportTime;
+
+    private boolean mPaused;
+    private boolean mRewinding;
+
+    private Telemetry mTelemetry;
+    //null while hidden
+    private TelemetryOverlay mOverlay;
+    //log every summary and append it to telemetry.csv
+    private boolean mLogTelemetry;
+    private long mEmulationBusyNanos;
+
+    public Chip8Emu() {
+        this(false);
+    }
+
+    public Chip8Emu(boolean threadedEmulation) {
+        mThreaded = threadedEmulation;
+    }
+
     @Override
     public void create() {
+        mLibrary = new RomLibrary(new GdxRomSource(), ROM_DIRECTORY);
+        FileHandle index = Gdx.files.local(LIBRARY_INDEX);
+        if (index.exists()) {
+            try {
+                mLibrary.load(index.readBytes());
+            } catch (IllegalArgumentException e) {
+                Gdx.app.error(TAG, "can't read " + index.path() + ", rescanning everything", e);
+            }
+        }
         setScreen(new GameChooser(this));
 
+        //the chooser starts out with the indexed ROMs, whatever changed since shows up once this is done
+        mLibrary.scanInBackground(new Runnable() {
+            @Override
+            public void run() {
+                Gdx.app.postRunnable(new Runnable() {
+                    @Override
+                    public void run() {
+                        saveLibrary();
+                        if (getScreen() instanceof GameChooser)
+                            ((GameChooser) getScreen()).refresh();
+                    }
+                });
+            }
+        });
+    }
+
+    private void saveLibrary() {
+        Gdx.files.local(LIBRARY_INDEX).writeBytes(mLibrary.toBytes(), false);
     }
 
     @Override
     public void render() {
-        if (mRenderer != null && mProcessor != null) {
-            mProcessor.emulateCycle(Gdx.graphics.getDeltaTime());
-            mRenderer.render();
+        if (mRenderer == null || mMachine == null)
+            return;
+
+        long start = System.nanoTime();
+        mTelemetry.beginFrame(start);
+
+        if (mRunAhead != null)
+            reportRunAhead();
+
+        FrameBuffer frame;
+        if (mEmulation != null) {
+            long busy = mEmulation.getBusyNanos();
+            mTelemetry.addEmulationNanos(busy - mEmulationBusyNanos);
+            mEmulationBusyNanos = busy;
+            frame = mFrames.acquire();
+        } else {
+            if (!mPaused) {
+                mKeyEvents.drainTo(mKeys);
+                mRecorder.record();
+                if (mRewinding)
+                    mRewind.stepBack();
+                else
+                    mMachine.getScheduler().update(Gdx.graphics.getDeltaTime());
+            }
+            frame = mRunAhead != null ? mRunAhead.getFrameBuffer() : mMachine.getFrameBuffer();
+
+            long emulated = System.nanoTime();
+            mTelemetry.addEmulationNanos(emulated - start);
+            start = emulated;
         }
+
+        mRenderer.render(frame);
+        mTelemetry.endFrame(System.nanoTime() - start);
+
+        if (mOverlay != null)
+            mOverlay.render();
+        if (mTelemetry.update(System.nanoTime()))
+            reportTelemetry();
+    }
+
+    private void reportTelemetry() {
+        if (mOverlay != null)
+            mOverlay.setLines(mTelemetry.toLines());
+
+        if (mLogTelemetry) {
+            Gdx.app.log(TAG, mTelemetry.toString());
+            FileHandle file = Gdx.files.local(TELEMETRY_FILE);
+            if (!file.exists())
+                file.writeString(Telemetry.csvHeader() + "\n", false);
+            file.writeString(mTelemetry.toCsv() + "\n", true);
+        }
+    }
+
+    private static final long RUN_AHEAD_REPORT_NANOS = 10000000000L;
+
+    private void reportRunAhead() {
+        long now = System.nanoTime();
+        if (now - mRunAheadReportTime < RUN_AHEAD_REPORT_NANOS)
+            return;
+        mRunAheadReportTime = now;
+
+        long average = mRunAhead.getAverageNanos();
+        float share = average * 100f * Scheduler.TIMER_HZ / 1e9f;
+        Gdx.app.log(TAG, "run-ahead " + mRunAhead.getFrames() + " frames: " + average / 1000 + " us per frame, "
+                + share + "% of a frame");
     }
 
     @Override
-    public void dispose() {
+    public void pause() {
+        setPaused(true);
+    }
+
+    @Override
+    public void resume() {
+        setPaused(false);
+    }
 
+    @Override
+    public void dispose() {
+        stopEmulation();
+        stopAudio();
+        if (mCapture != null)
+            stopCapture();
+        mLibrary.dispose();
+        if (mOverlay != null) {
+            mOverlay.dispose();
+            mOverlay = null;
+        }
     }
 
     @Override
     public void resize(int width, int height) {
         if (mRenderer != null)
             mRenderer.resize(width, height);
+        if (mOverlay != null)
+            mOverlay.resize(width, height);
+    }
+
+    public RomLibrary getLibrary() {
+        return mLibrary;
     }
 
     public InputHandler getInput() {
@@ -48,21 +239,287 @@ public class Chip8Emu extends Game {
         return mRenderer;
     }
 
-    public void startGame(String gameFile) {
-        mRenderer = new Renderer(this);
-        mProcessor = new Processor(this);
-        mInput = new InputHandler(this);
+    public Machine getMachine() {
+        return mMachine;
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    //while paused nothing is emulated, so frames are only drawn when the system asks for one
+    public void setPaused(boolean paused) {
+        mPaused = paused;
+        if (mMachine == null) return;
+
+        if (mEmulation != null) {
+            //rendering is already driven by new frames from the emulation thread
+            mEmulation.setPaused(paused);
+        } else {
+            Gdx.graphics.setContinuousRendering(!paused);
+        }
+        updateAudioPaused();
+        Gdx.graphics.requestRendering();
+    }
+
+    public boolean isTelemetryShown() {
+        return mOverlay != null;
+    }
 
-        mProcessor.loadROM(gameFile);
+    public void setTelemetryShown(boolean shown) {
+        if (shown == (mOverlay != null)) return;
+
+        if (shown) {
+            mOverlay = new TelemetryOverlay(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
+            if (mTelemetry != null)
+                mOverlay.setLines(mTelemetry.toLines());
+        } else {
+            mOverlay.dispose();
+            mOverlay = null;
+        }
+        Gdx.graphics.requestRendering();
+    }
+
+    //applies to games started afterwards
+    public void setTelemetryLogged(boolean logged) {
+        mLogTelemetry = logged;
+    }
+
+    public boolean isRewinding() {
+        return mRewinding;
+    }
+
+    //while set, every frame steps the game one frame back instead of forward
+    public void setRewinding(boolean rewinding) {
+        mRewinding = rewinding;
+        if (mEmulation != null)
+            mEmulation.setRewinding(rewinding);
+        updateAudioPaused();
+    }
+
+    //sound only comes from frames run forward
+    private void updateAudioPaused() {
+        if (mAudio != null)
+            mAudio.setPaused(mPaused || mRewinding);
+    }
+
+    public int getRunAheadFrames() {
+        return mRunAheadFrames;
+    }
+
+    //applies to games started afterwards
+    public void setRunAheadFrames(int frames) {
+        if (frames < 0 || frames > RunAhead.MAX_FRAMES)
+            throw new IllegalArgumentException("run-ahead has to be 0-" + RunAhead.MAX_FRAMES + " frames: " + frames);
+        mRunAheadFrames = frames;
+    }
+
+    public void startGame(RomLibrary.Entry game) {
+        mGameFile = game.getPath();
+        mKeys = new KeyState();
+        mKeyEvents = new KeyEventQueue();
+        mInput = new InputHandler(this, mKeyEvents);
+        //a tenth of a second, more than the audio thread lets queue up
+        SampleRing samples = new SampleRing(SoundSynthesizer.DEFAULT_SAMPLE_RATE / 10);
+        mMachine = new Machine(mKeys, new SoundSynthesizer(samples, SoundSynthesizer.DEFAULT_SAMPLE_RATE), new TableEngine());
+        mRenderer = new Renderer();
+
+        //a new game every time, headless runs keep the fixed default seed
+        mMachine.getProcessor().setRandomSeed(System.nanoTime());
+        mMachine.loadROM(mLibrary.read(game), game.getPlatform());
+        mLibrary.setLastPlayed(game, System.currentTimeMillis());
+        saveLibrary();
+
+        final Rewind rewind = new Rewind(mMachine);
+        final Machine machine = mMachine;
+        mMachine.getScheduler().setFrameListener(new Runnable() {
+            @Override
+            public void run() {
+                rewind.record();
+                if (mCapture != null)
+                    mCapture.capture(machine.getFrameBuffer(), machine.getScheduler().getFrame());
+            }
+        });
+        mRewind = rewind;
+        mRewinding = false;
+        mRecorder = new InputRecorder(mMachine, mKeys);
+        mTelemetry = new Telemetry(mMachine.getScheduler());
+
+        if (Gdx.audio != null) {
+            mAudioDevice = Gdx.audio.newAudioDevice(SoundSynthesizer.DEFAULT_SAMPLE_RATE, true);
+            mAudio = new AudioThread(mAudioDevice, samples, SoundSynthesizer.DEFAULT_SAMPLE_RATE);
+            mAudio.start();
+            mTelemetry.setAudio(mAudio);
+        }
+        mEmulationBusyNanos = 0;
+
+        if (mRunAheadFrames > 0) {
+            mRunAhead = new RunAhead(mMachine, new Machine(mKeys), mRunAheadFrames);
+            mRunAheadReportTime = System.nanoTime();
+        }
 
         Gdx.input.setInputProcessor(mInput);
+        mPaused = false;
+
+        if (mThreaded) {
+            //only draw when the emulation thread has a changed frame
+            Gdx.graphics.setContinuousRendering(false);
+            mFrames = new TripleBuffer();
+            mEmulation = new EmulationThread(mMachine, mKeys, mKeyEvents, mFrames, new Runnable() {
+                @Override
+                public void run() {
+                    Gdx.graphics.requestRendering();
+                }
+            });
+            mEmulation.setRewind(mRewind);
+            mEmulation.setRecorder(mRecorder);
+            mEmulation.setRunAhead(mRunAhead);
+            mEmulation.start();
+        } else {
+            Gdx.graphics.setContinuousRendering(true);
+        }
+    }
+
+    //one quick save slot per game
+    private FileHandle getStateFile() {
+        return Gdx.files.local("saves/" + new FileHandle(mGameFile).nameWithoutExtension() + ".state");
+    }
+
+    public void saveState() {
+        if (mMachine == null) return;
+
+        final Machine machine = mMachine;
+        final FileHandle file = getStateFile();
+        onMachine(new Runnable() {
+            @Override
+            public void run() {
+                file.writeBytes(SaveState.save(machine), false);
+                Gdx.app.log(TAG, "saved state to " + file.path());
+            }
+        });
+    }
+
+    public void loadState() {
+        if (mMachine == null) return;
+
+        final Machine machine = mMachine;
+        final InputRecorder recorder = mRecorder;
+        final FileHandle file = getStateFile();
+        if (!file.exists()) {
+            Gdx.app.log(TAG, "no saved state in " + file.path());
+            return;
+        }
+
+        final byte[] state = file.readBytes();
+        onMachine(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SaveState.load(machine, state);
+                    recorder.restart();
+                } catch (IllegalArgumentException e) {
+                    Gdx.app.error(TAG, "can't load " + file.path(), e);
+                }
+            }
+        });
+        Gdx.graphics.requestRendering();
+    }
+
+    //writes the input recorded so far, BatchRunner --replay plays it back
+    public void saveRecording() {
+        if (mMachine == null) return;
+
+        final InputRecorder recorder = mRecorder;
+        final FileHandle file = Gdx.files.local("recordings/" + new FileHandle(mGameFile).nameWithoutExtension() + ".c8i");
+        onMachine(new Runnable() {
+            @Override
+            public void run() {
+                file.writeBytes(recorder.getLog().toBytes(), false);
+                Gdx.app.log(TAG, "saved input recording to " + file.path());
+            }
+        });
+    }
+
+    //starts or stops writing what the game shows to captures/ as an animated GIF
+    public void toggleCapture() {
+        if (mMachine == null) return;
+
+        final FileHandle file = Gdx.files.local("captures/" + new FileHandle(mGameFile).nameWithoutExtension()
+                + "-" + System.currentTimeMillis() + ".gif");
+        onMachine(new Runnable() {
+            @Override
+            public void run() {
+                if (mCapture != null) {
+                    stopCapture();
+                    return;
+                }
+
+                try {
+                    FrameCapture capture = new FrameCapture(new GifEncoder(new BufferedOutputStream(file.write(false)), CAPTURE_SCALE));
+                    capture.start();
+                    mCapture = capture;
+                    Gdx.app.log(TAG, "capturing to " + file.path());
+                } catch (IOException e) {
+                    Gdx.app.error(TAG, "can't capture to " + file.path(), e);
+                }
+            }
+        });
+    }
+
+    private void stopCapture() {
+        FrameCapture capture = mCapture;
+        mCapture = null;
+        try {
+            capture.stop();
+            Gdx.app.log(TAG, "capture done, " + capture.getEncodedFrames() + " frames, "
+                    + capture.getDroppedFrames() + " dropped");
+        } catch (IOException e) {
+            Gdx.app.error(TAG, "capture failed", e);
+        }
+    }
+
+    //the machine may only be touched by whoever runs it
+    private void onMachine(Runnable task) {
+        if (mEmulation != null)
+            mEmulation.post(task);
+        else
+            task.run();
+    }
+
+    private void stopEmulation() {
+        if (mEmulation != null) {
+            mEmulation.stop();
+            mEmulation = null;
+            mFrames = null;
+        }
+    }
+
+    private void stopAudio() {
+        if (mAudio != null) {
+            mAudio.stop();
+            mAudio = null;
+            mAudioDevice.dispose();
+            mAudioDevice = null;
+        }
     }
 
     public void reset() {
-        mRenderer.clearDisplay();
+        stopEmulation();
+        stopAudio();
+        if (mCapture != null)
+            stopCapture();
+        mRenderer.clearScreen();
+        mRenderer.dispose();
         mRenderer = null;
-        mProcessor = null;
+        mMachine = null;
+        mRewind = null;
+        mRecorder = null;
+        mTelemetry = null;
+        mRunAhead = null;
+        mGameFile = null;
         mInput = null;
+        mKeys = null;
+        mKeyEvents = null;
         setScreen(new GameChooser(this));
     }
 }
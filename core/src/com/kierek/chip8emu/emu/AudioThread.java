@@ -0,0 +1,135 @@
+package com.kierek.chip8emu.emu;
+
+import com.badlogic.gdx.audio.AudioDevice;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams a {@link SampleRing} to an {@link AudioDevice} from its own thread. Writing to the device
+ * blocks until it has room, so the device clock paces this thread, while the machine fills the ring
+ * at the emulated 60 Hz. The device is never fed silence to fill a gap, that would only add latency:
+ * an empty ring is polled until sound arrives, and an underrun is counted once the wait was longer
+ * than the device's own buffer lasts. When the ring holds more than {@link #MAX_QUEUED_FRAMES} frames
+ * of sound the oldest samples are dropped, so a host that emulates a little faster than the device
+ * plays can't build up latency either.
+ */
+public class AudioThread implements Runnable {
+
+    //samples handed to the device at once, under 6 ms at 44100 Hz
+    public static final int BLOCK = 256;
+
+    //more queued sound than this is dropped
+    public static final int MAX_QUEUED_FRAMES = 3;
+
+    private static final long POLL_NANOS = 1000000;
+
+    private final AudioDevice device;
+    private final SampleRing ring;
+    private final int sampleRate;
+    private final int maxQueued;
+    //samples the device buffers itself, constant for a device
+    private final int deviceLatency;
+    private final long deviceNanos;
+    private final short[] block = new short[BLOCK];
+
+    private volatile boolean running;
+    private volatile boolean paused;
+    private Thread thread;
+
+    private volatile long underruns;
+    private volatile long droppedSamples;
+
+    public AudioThread(AudioDevice device, SampleRing ring, int sampleRate) {
+        this.device = device;
+        this.ring = ring;
+        this.sampleRate = sampleRate;
+        maxQueued = Math.min(ring.capacity(), MAX_QUEUED_FRAMES * sampleRate / Scheduler.TIMER_HZ);
+        deviceLatency = device.getLatency();
+        deviceNanos = deviceLatency * 1000000000L / sampleRate;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "chip8-audio");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    //stops the thread, the device is left to the caller
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    //while paused nothing is played and a dry ring isn't an underrun
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        //nothing to starve before the first sound after starting or resuming
+        boolean streaming = false;
+        long dryFrom = -1;
+        while (running) {
+            if (paused) {
+                //whatever is left in the ring belongs to before the pause
+                ring.skip(ring.capacity());
+                streaming = false;
+                dryFrom = -1;
+                LockSupport.park(this);
+                continue;
+            }
+
+            int queued = ring.available();
+            if (queued > maxQueued)
+                droppedSamples += ring.skip(queued - maxQueued);
+
+            int read = ring.read(block, 0, BLOCK);
+            if (read == 0) {
+                //the device keeps playing what it has, only once that is gone it really ran dry
+                long now = System.nanoTime();
+                if (dryFrom == -1) {
+                    dryFrom = now;
+                } else if (streaming && now - dryFrom > deviceNanos) {
+                    underruns++;
+                    streaming = false;
+                }
+                LockSupport.parkNanos(this, POLL_NANOS);
+                continue;
+            }
+
+            dryFrom = -1;
+            streaming = true;
+            device.writeSamples(block, 0, read);
+        }
+    }
+
+    //times the ring ran dry while playing
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    //samples dropped to keep the latency down
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    //from a frame's sound being written to it reaching the speaker: the queued samples plus the device's own buffer
+    public double getLatencyMillis() {
+        return (ring.available() + deviceLatency) * 1000.0 / sampleRate;
+    }
+}
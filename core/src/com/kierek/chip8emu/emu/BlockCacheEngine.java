@@ -0,0 +1,116 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Engine that decodes straight-line runs of instructions into blocks once and then replays them
+ * from a cache keyed by start address, skipping the fetch and table lookup on every following visit.
+ * <p>
+ * A block ends at the first instruction that can change the program counter (jumps, calls, returns, skips,
+ * FX0A) or that writes memory (FX33, FX55), so within a block only the last instruction may leave it.
+ * Writes to memory drop every block covering the written bytes, keeping self-modifying ROMs correct.
+ */
+public class BlockCacheEngine implements ExecutionEngine {
+
+    //long enough for typical game loops, short enough to keep invalidation scans cheap
+    public static final int MAX_BLOCK_LENGTH = 32;
+
+    static final class Block {
+        final int start;
+        //address of the first byte after the block
+        final int end;
+        final int[] ops;
+
+        Block(int start, int[] ops) {
+            this.start = start;
+            this.end = start + ops.length * 2;
+            this.ops = ops;
+        }
+    }
+
+    //one slot per memory address, grown for XO-CHIP's 64 KB
+    private Block[] blocks = new Block[0x1000];
+    private final int[] scratch = new int[MAX_BLOCK_LENGTH];
+
+    @Override
+    public int execute(Processor cpu, int cycles) {
+        if (blocks.length != cpu.memory.length)
+            blocks = new Block[cpu.memory.length];
+
+        //code can run off the end of memory, the program counter wraps around like the reads do
+        int mask = cpu.memory.length - 1;
+        int executed = 0;
+        while (executed < cycles) {
+            int pc = cpu.programCounter;
+            Block block = blocks[pc];
+            if (block == null) {
+                block = translate(cpu.memory, pc);
+                blocks[pc] = block;
+            }
+
+            int[] ops = block.ops;
+            int count = Math.min(ops.length, cycles - executed);
+            for (int i = 0; i < count; i++) {
+                cpu.programCounter = (cpu.programCounter + 2) & mask;
+                TableEngine.dispatch(cpu, ops[i]);
+            }
+            executed += count;
+
+            //only the last instruction can jump back
+            if (count == ops.length && cpu.programCounter < block.end)
+                executed += cpu.skipIdleLoop(block.end - 2, executed, cycles - executed);
+        }
+        return executed;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {
+        //any block starting up to MAX_BLOCK_LENGTH instructions before the write can cover it
+        int from = Math.max(0, address - MAX_BLOCK_LENGTH * 2 + 1);
+        int to = Math.min(blocks.length, address + length);
+
+        for (int start = from; start < to; start++) {
+            Block block = blocks[start];
+            if (block != null && block.end > address)
+                blocks[start] = null;
+        }
+    }
+
+    //translates every statically reachable block now, so running the ROM finds them all cached
+    @Override
+    public void prepare(Processor cpu, ProgramAnalysis analysis) {
+        if (blocks.length != cpu.memory.length)
+            blocks = new Block[cpu.memory.length];
+
+        for (ProgramAnalysis.Block found : analysis.getBlocks()) {
+            //stores, key waits and the length limit end a cached block early, the rest of the block follows it
+            int start = found.start;
+            while (start < found.end) {
+                Block block = blocks[start];
+                if (block == null) {
+                    block = translate(cpu.memory, start);
+                    blocks[start] = block;
+                }
+                start = block.end;
+            }
+        }
+    }
+
+    private Block translate(int[] memory, int start) {
+        int length = 0;
+        int address = start;
+
+        while (true) {
+            //the second byte wraps around at the end of XO-CHIP's 64 KB, like I does
+            int decoded = TableEngine.DECODED[(memory[address] << 8) | memory[(address + 1) & (memory.length - 1)]];
+            scratch[length++] = decoded;
+            address += 2;
+
+            //the next instruction has to start inside memory
+            if (TableEngine.endsBlock(decoded & 0xFF) || length == MAX_BLOCK_LENGTH || address >= memory.length)
+                break;
+        }
+
+        int[] ops = new int[length];
+        System.arraycopy(scratch, 0, ops, 0, length);
+        return new Block(start, ops);
+    }
+}
@@ -0,0 +1,74 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Engine running a ROM translated ahead of time into a {@link CompiledProgram}.
+ * Addresses without a compiled block (computed BNNN targets, self-modified code)
+ * and blocks that don't fit into the remaining cycles are executed by the interpreter.
+ */
+public class CompiledEngine implements ExecutionEngine {
+
+    private final CompiledProgram program;
+    private final int[] blockLength;
+    private final TableEngine interpreter = new TableEngine();
+
+    private Processor boundTo;
+
+    public CompiledEngine(CompiledProgram program) {
+        this.program = program;
+        this.blockLength = program.blockLength;
+    }
+
+    @Override
+    public int execute(Processor cpu, int cycles) {
+        //the processor gets new memory when it switches platform
+        if (boundTo != cpu || program.memory != cpu.memory) {
+            program.bind(cpu);
+            boundTo = cpu;
+        }
+
+        int executed = 0;
+        while (executed < cycles) {
+            int pc = cpu.programCounter;
+            //only the first 4 KB are compiled
+            int length = pc < blockLength.length ? blockLength[pc] : 0;
+
+            if (length == 0 || length > cycles - executed) {
+                executed += interpreter.execute(cpu, 1);
+                if (cpu.programCounter <= pc)
+                    executed += cpu.skipIdleLoop(pc, executed, cycles - executed);
+            } else {
+                //a block at the end of CHIP-8 memory can fall through or skip past it
+                cpu.programCounter = program.runBlock(pc) & (cpu.memory.length - 1);
+                executed += length;
+
+                int last = pc + (length - 1) * 2;
+                if (cpu.programCounter <= last)
+                    executed += cpu.skipIdleLoop(last, executed, cycles - executed);
+            }
+        }
+        return executed;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {
+        //the ROM the program was compiled from is loaded before prepare(), ignore that write
+        if (boundTo == null) return;
+
+        //written code is never compiled again, it stays with the interpreter,
+        //a skip ending a block also depends on the word after it, it may be F000
+        int from = Math.max(0, address - BlockCacheEngine.MAX_BLOCK_LENGTH * 2 - 1);
+        int to = Math.min(blockLength.length, address + length);
+
+        for (int start = from; start < to; start++) {
+            if (blockLength[start] != 0 && start + blockLength[start] * 2 + 2 > address)
+                blockLength[start] = 0;
+        }
+    }
+
+    @Override
+    public void prepare(Processor cpu, ProgramAnalysis analysis) {
+        //translated ahead of time already, from here on every write counts, save states loaded before the first frame too
+        program.bind(cpu);
+        boundTo = cpu;
+    }
+}
@@ -0,0 +1,49 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Base class for ROMs translated ahead of time into JVM classes.
+ * Generated subclasses implement {@link #runBlock(int)} with one method per basic block,
+ * everything they can't express directly goes back to the interpreter through {@link #interpret(int, int)}.
+ */
+public abstract class CompiledProgram {
+
+    //length in instructions of the block starting at every address, 0 when there is none
+    final int[] blockLength = new int[0x1000];
+
+    private Processor cpu;
+
+    //registers and memory of the bound processor, read by the generated code
+    protected int[] v;
+    protected int[] memory;
+
+    /**
+     * Runs the block starting at {@code pc}.
+     *
+     * @return address of the next instruction to execute
+     */
+    public abstract int runBlock(int pc);
+
+    public final void defineBlock(int start, int length) {
+        blockLength[start] = length;
+    }
+
+    final void bind(Processor cpu) {
+        this.cpu = cpu;
+        v = cpu.register;
+        memory = cpu.memory;
+    }
+
+    //executes the instruction at address pc with the interpreter
+    protected final void interpret(int pc, int opcode) {
+        cpu.programCounter = (pc + 2) & (memory.length - 1);
+        TableEngine.dispatch(cpu, TableEngine.DECODED[opcode]);
+    }
+
+    protected final int getProgramCounter() {
+        return cpu.programCounter;
+    }
+
+    protected final void setAddressPointer(int address) {
+        cpu.addressPointer = address;
+    }
+}
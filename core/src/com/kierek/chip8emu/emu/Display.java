@@ -0,0 +1,39 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Display as seen by the processor: monochrome, or up to two XO-CHIP bitplanes.
+ * Everything but {@link #reset()} only affects the planes picked with {@link #selectPlanes(int)}.
+ */
+public interface Display {
+
+    //low resolution, plane 0 selected and nothing lit, like after power on
+    void reset();
+
+    void clear();
+
+    /**
+     * XORs a sprite 8 pixels wide and {@code height} rows high onto the display,
+     * rows are read one byte each from {@code memory} starting at {@code address}.
+     * Height 0 draws a 16x16 sprite of two bytes per row. With both planes selected
+     * the sprite for plane 1 follows the one for plane 0.
+     *
+     * @return true if any pixel was turned off
+     */
+    boolean drawSprite(int x, int y, int[] memory, int address, int height);
+
+    //switches between 64x32 and 128x64, the screen is cleared
+    void setHighResolution(boolean highResolution);
+
+    //scroll distances are in pixels of the current resolution
+    void scrollDown(int rows);
+
+    void scrollUp(int rows);
+
+    //by 4 pixels
+    void scrollLeft();
+
+    void scrollRight();
+
+    //bit p selects plane p
+    void selectPlanes(int planes);
+}
@@ -0,0 +1,168 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Machine} on its own thread at the scheduler's fixed rate, so a slow render frame
+ * doesn't stall the CPU and the other way round.
+ * Key events come in through a {@link KeyEventQueue}, changed frames go out through a {@link TripleBuffer},
+ * neither side ever blocks on the other.
+ */
+public class EmulationThread implements Runnable {
+
+    private static final long FRAME_NANOS = 1000000000L / Scheduler.TIMER_HZ;
+
+    private final Machine machine;
+    private final KeyState keys;
+    private final KeyEventQueue keyEvents;
+    private final TripleBuffer frames;
+    //told about every published frame, called on the emulation thread
+    private final Runnable onNewFrame;
+
+    //work that has to touch the machine, run between two frames
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    private volatile boolean running;
+    private volatile boolean paused;
+    private volatile boolean rewinding;
+    //steps back instead of emulating while rewinding, may be null
+    private Rewind rewind;
+    //logs the keypad after every drain, may be null
+    private InputRecorder recorder;
+    //shows frames from a few frames ahead, may be null
+    private RunAhead runAhead;
+    private Thread thread;
+
+    private long publishedGeneration = -1;
+    //time spent emulating and publishing, for telemetry
+    private volatile long busyNanos;
+
+    public EmulationThread(Machine machine, KeyState keys, KeyEventQueue keyEvents, TripleBuffer frames, Runnable onNewFrame) {
+        this.machine = machine;
+        this.keys = keys;
+        this.keyEvents = keyEvents;
+        this.frames = frames;
+        this.onNewFrame = onNewFrame;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "chip8-emulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+        LockSupport.unpark(thread);
+    }
+
+    //has to be set before start(), the emulation thread records into it
+    public void setRewind(Rewind rewind) {
+        this.rewind = rewind;
+    }
+
+    //has to be set before start() as well
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    //has to be set before start() as well
+    public void setRunAhead(RunAhead runAhead) {
+        this.runAhead = runAhead;
+    }
+
+    public void setRewinding(boolean rewinding) {
+        this.rewinding = rewinding;
+    }
+
+    //runs the task on the emulation thread between two frames, also while paused
+    public void post(Runnable task) {
+        tasks.offer(task);
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        Scheduler scheduler = machine.getScheduler();
+        long last = System.nanoTime();
+
+        while (running) {
+            runTasks();
+
+            if (paused) {
+                LockSupport.park(this);
+                //time spent paused is not emulated
+                last = System.nanoTime();
+                continue;
+            }
+
+            long start = System.nanoTime();
+            keyEvents.drainTo(keys);
+            if (recorder != null)
+                recorder.record();
+            if (rewinding && rewind != null)
+                rewind.stepBack();
+            else
+                scheduler.update((start - last) / 1e9f);
+            last = start;
+            publish();
+            busyNanos += System.nanoTime() - start;
+
+            //rewinding goes back one frame per tick, as fast as the game went forward
+            if (!scheduler.isUnlimited() || rewinding) {
+                long remaining = FRAME_NANOS - (System.nanoTime() - start);
+                if (remaining > 0)
+                    LockSupport.parkNanos(this, remaining);
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        boolean ran = false;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+            ran = true;
+        }
+        //a task may have changed the screen while nothing else would publish it
+        if (ran)
+            publish();
+    }
+
+    private void publish() {
+        FrameBuffer frameBuffer = runAhead != null ? runAhead.getFrameBuffer() : machine.getFrameBuffer();
+        if (frameBuffer.getGeneration() == publishedGeneration)
+            return;
+
+        frames.getBackBuffer().set(frameBuffer);
+        frames.publish();
+        publishedGeneration = frameBuffer.getGeneration();
+        onNewFrame.run();
+    }
+}
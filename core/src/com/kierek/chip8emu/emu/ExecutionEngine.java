@@ -0,0 +1,29 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Strategy used by {@link Processor} to fetch, decode and execute instructions.
+ * The machine's state lives in the Processor, but an engine may cache what it derives from that processor's memory,
+ * like translated blocks or a compiled program bound to it, so an instance must not be shared between machines.
+ */
+public interface ExecutionEngine {
+
+    /**
+     * Executes up to {@code cycles} instructions.
+     * Turns of idle loops skipped through {@link Processor#skipIdleLoop(int, int, int)} count as executed.
+     *
+     * @return number of instructions actually executed
+     */
+    int execute(Processor cpu, int cycles);
+
+    /**
+     * Called after {@code length} bytes of memory starting at {@code address} were written,
+     * engines caching anything derived from memory must drop it here.
+     */
+    void invalidate(int address, int length);
+
+    /**
+     * Called after a ROM was loaded with what {@link ProgramAnalysis} found in it,
+     * engines that translate code can do it here instead of on first execution.
+     */
+    void prepare(Processor cpu, ProgramAnalysis analysis);
+}
@@ -0,0 +1,78 @@
+package com.kierek.chip8emu.emu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads ROMs from the file system, relative paths are resolved against the given directory.
+ * Meant for headless runs where libGDX isn't initialized.
+ */
+public class FileRomSource implements RomSource {
+
+    private final File root;
+
+    public FileRomSource(File root) {
+        this.root = root;
+    }
+
+    @Override
+    public byte[] read(String path) {
+        File file = resolve(path);
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read ROM " + file, e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public String[] list(String directory) {
+        File[] files = resolve(directory).listFiles();
+        if (files == null)
+            return new String[0];
+
+        List<String> paths = new ArrayList<String>();
+        for (File file : files) {
+            if (file.isFile()) paths.add(new File(directory, file.getName()).getPath());
+        }
+        return paths.toArray(new String[paths.size()]);
+    }
+
+    @Override
+    public long length(String path) {
+        return resolve(path).length();
+    }
+
+    @Override
+    public long lastModified(String path) {
+        return resolve(path).lastModified();
+    }
+
+    private File resolve(String path) {
+        File file = new File(path);
+        if (!file.isAbsolute())
+            file = new File(root, path);
+        return file;
+    }
+}
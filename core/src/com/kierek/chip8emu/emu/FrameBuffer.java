@@ -0,0 +1,323 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.Arrays;
+
+/**
+ * Pixels of the display, without anything tied to a graphics API.
+ * It is 64x32 like the original machine, or 128x64 in the SUPER-CHIP high resolution mode,
+ * and has two bitplanes for XO-CHIP; programs that never select the second one only ever see plane 0.
+ * <p>
+ * Every row of a plane is packed into two longs with column 0 in the most significant bit of the first,
+ * at 64 pixels wide only the first one is used. Drawing a sprite row is then a rotate, an XOR and an AND
+ * for collision detection per long, and scrolling moves whole longs or shifts them by 4 bits,
+ * so clearing, comparing or copying the screen never touches single pixels.
+ * <p>
+ * Changes are tracked two ways: a generation counter bumped on every change, for a cheap "anything new?" check,
+ * and a mask of rows changed since the consumer last cleared it, so only those have to be redrawn.
+ */
+public class FrameBuffer implements Display {
+
+    //screen resolution was 64x32 pixels, they where either on or off
+    public static final int WIDTH = 64;
+    public static final int HEIGHT = 32;
+
+    //SUPER-CHIP high resolution mode
+    public static final int HIRES_WIDTH = 128;
+    public static final int HIRES_HEIGHT = 64;
+
+    public static final int PLANES = 2;
+
+    //RGBA8888 indexed by the planes a pixel is lit on, for everything that shows or saves the screen
+    static final int[] COLORS = {0x000000FF, 0xFFFFFFFF, 0xAAAAAAFF, 0x555555FF};
+    //longs per row of a plane
+    public static final int WORDS = HIRES_WIDTH / 64;
+
+    //plane p, row y, word w at (p * HIRES_HEIGHT + y) * WORDS + w
+    private final long[] words = new long[PLANES * HIRES_HEIGHT * WORDS];
+
+    private boolean highResolution;
+    private int width = WIDTH;
+    private int height = HEIGHT;
+    //planes drawn to, bit p for plane p
+    private int selectedPlanes = 1;
+
+    private long generation;
+    //bit y set when row y changed
+    private long dirtyRows;
+
+    @Override
+    public void reset() {
+        setHighResolution(false);
+        selectedPlanes = 1;
+    }
+
+    @Override
+    public void clear() {
+        int rowWords = highResolution ? WORDS : 1;
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((selectedPlanes & (1 << plane)) == 0) continue;
+
+            for (int y = 0; y < height; y++) {
+                int index = indexOf(plane, y);
+                for (int w = 0; w < rowWords; w++) {
+                    store(index + w, y, 0);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean drawSprite(int x, int y, int[] memory, int address, int height) {
+        long turnedOff = 0;
+
+        //height 0 is a 16x16 sprite of two bytes per row
+        boolean large = height == 0;
+        int rows = large ? 16 : height;
+        //sprite rows go to the top of the long and are rotated right, wrapping around the right edge
+        int shift = x % width;
+        int top = y % this.height;
+
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((selectedPlanes & (1 << plane)) == 0) continue;
+
+            //every selected plane takes the next sprite from memory
+            for (int row = 0; row < rows; row++) {
+                long bits;
+                if (large) {
+                    bits = (((memory[address] & 0xFFL) << 8) | (memory[address + 1] & 0xFFL)) << 48;
+                    address += 2;
+                } else {
+                    bits = (memory[address] & 0xFFL) << 56;
+                    address++;
+                }
+                //XOR with zero changes nothing
+                if (bits == 0) continue;
+
+                int destY = (top + row) % this.height;
+                int index = indexOf(plane, destY);
+
+                if (!highResolution) {
+                    bits = Long.rotateRight(bits, shift);
+                    long previous = words[index];
+                    turnedOff |= previous & bits;
+                    words[index] = previous ^ bits;
+                } else {
+                    //rotating right within 128 bits, the sprite starts out entirely in the left long
+                    long left, right;
+                    if (shift < 64) {
+                        left = bits >>> shift;
+                        right = shift == 0 ? 0 : bits << (64 - shift);
+                    } else {
+                        left = shift == 64 ? 0 : bits << (128 - shift);
+                        right = bits >>> (shift - 64);
+                    }
+                    long previousLeft = words[index];
+                    long previousRight = words[index + 1];
+                    turnedOff |= (previousLeft & left) | (previousRight & right);
+                    words[index] = previousLeft ^ left;
+                    words[index + 1] = previousRight ^ right;
+                }
+
+                dirtyRows |= 1L << destY;
+                generation++;
+            }
+        }
+        return turnedOff != 0;
+    }
+
+    @Override
+    public void setHighResolution(boolean highResolution) {
+        this.highResolution = highResolution;
+        width = highResolution ? HIRES_WIDTH : WIDTH;
+        height = highResolution ? HIRES_HEIGHT : HEIGHT;
+
+        //switching modes starts from an empty screen, every row has to be redrawn at the new size
+        Arrays.fill(words, 0);
+        dirtyRows = -1L;
+        generation++;
+    }
+
+    @Override
+    public void scrollDown(int rows) {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((selectedPlanes & (1 << plane)) == 0 || rows == 0 || isEmpty(plane)) continue;
+
+            int start = indexOf(plane, 0);
+            int moved = Math.max(0, height - rows);
+            System.arraycopy(words, start, words, start + (height - moved) * WORDS, moved * WORDS);
+            Arrays.fill(words, start, start + (height - moved) * WORDS, 0);
+            changedAll();
+        }
+    }
+
+    @Override
+    public void scrollUp(int rows) {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((selectedPlanes & (1 << plane)) == 0 || rows == 0 || isEmpty(plane)) continue;
+
+            int start = indexOf(plane, 0);
+            int moved = Math.max(0, height - rows);
+            System.arraycopy(words, start + (height - moved) * WORDS, words, start, moved * WORDS);
+            Arrays.fill(words, start + moved * WORDS, start + height * WORDS, 0);
+            changedAll();
+        }
+    }
+
+    @Override
+    public void scrollLeft() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((selectedPlanes & (1 << plane)) == 0) continue;
+
+            for (int y = 0; y < height; y++) {
+                int index = indexOf(plane, y);
+                long left = words[index];
+                if (highResolution) {
+                    long right = words[index + 1];
+                    store(index, y, (left << 4) | (right >>> 60));
+                    store(index + 1, y, right << 4);
+                } else {
+                    store(index, y, left << 4);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void scrollRight() {
+        for (int plane = 0; plane < PLANES; plane++) {
+            if ((selectedPlanes & (1 << plane)) == 0) continue;
+
+            for (int y = 0; y < height; y++) {
+                int index = indexOf(plane, y);
+                long left = words[index];
+                if (highResolution) {
+                    long right = words[index + 1];
+                    store(index + 1, y, (right >>> 4) | (left << 60));
+                    store(index, y, left >>> 4);
+                } else {
+                    store(index, y, left >>> 4);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void selectPlanes(int planes) {
+        selectedPlanes = planes & ((1 << PLANES) - 1);
+    }
+
+    public boolean isHighResolution() {
+        return highResolution;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSelectedPlanes() {
+        return selectedPlanes;
+    }
+
+    //true if the pixel is lit on any plane
+    public boolean isSet(int x, int y) {
+        return getPixel(x, y) != 0;
+    }
+
+    //bit p set when the pixel is lit on plane p
+    public int getPixel(int x, int y) {
+        int pixel = 0;
+        for (int plane = 0; plane < PLANES; plane++) {
+            long word = words[indexOf(plane, y) + x / 64];
+            pixel |= (int) ((word >>> (63 - x % 64)) & 1) << plane;
+        }
+        return pixel;
+    }
+
+    //64 pixels of a row of one plane, word 0 holds columns 0-63 and word 1 columns 64-127, column 0 in the most significant bit
+    public long getWord(int plane, int y, int word) {
+        return words[indexOf(plane, y) + word];
+    }
+
+    void setWord(int plane, int y, int word, long bits) {
+        store(indexOf(plane, y) + word, y, bits);
+    }
+
+    //switches the mode without clearing the screen, the pixels are restored right after
+    void restoreMode(boolean highResolution, int planes) {
+        if (this.highResolution != highResolution) {
+            this.highResolution = highResolution;
+            width = highResolution ? HIRES_WIDTH : WIDTH;
+            height = highResolution ? HIRES_HEIGHT : HEIGHT;
+            dirtyRows = -1L;
+            generation++;
+        }
+        selectPlanes(planes);
+    }
+
+    //replaces the whole screen, only rows that really differ are marked dirty
+    public void set(FrameBuffer other) {
+        restoreMode(other.highResolution, other.selectedPlanes);
+        for (int plane = 0; plane < PLANES; plane++) {
+            for (int y = 0; y < HIRES_HEIGHT; y++) {
+                int index = indexOf(plane, y);
+                for (int w = 0; w < WORDS; w++) {
+                    store(index + w, y, other.words[index + w]);
+                }
+            }
+        }
+    }
+
+    //changes every time a pixel changes, equal generations mean an unchanged screen
+    public long getGeneration() {
+        return generation;
+    }
+
+    public long getDirtyRows() {
+        return dirtyRows;
+    }
+
+    public void clearDirtyRows() {
+        dirtyRows = 0;
+    }
+
+    private static int indexOf(int plane, int y) {
+        return (plane * HIRES_HEIGHT + y) * WORDS;
+    }
+
+    private void store(int index, int y, long bits) {
+        if (words[index] != bits) {
+            words[index] = bits;
+            dirtyRows |= 1L << y;
+            generation++;
+        }
+    }
+
+    private boolean isEmpty(int plane) {
+        int start = indexOf(plane, 0);
+        long any = 0;
+        for (int i = start; i < start + height * WORDS; i++) {
+            any |= words[i];
+        }
+        return any == 0;
+    }
+
+    private void changedAll() {
+        dirtyRows |= height == 64 ? -1L : (1L << height) - 1;
+        generation++;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FrameBuffer && highResolution == ((FrameBuffer) o).highResolution
+                && Arrays.equals(words, ((FrameBuffer) o).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words) * 31 + (highResolution ? 1 : 0);
+    }
+}
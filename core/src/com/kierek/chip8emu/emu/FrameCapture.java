@@ -0,0 +1,262 @@
+package com.kierek.chip8emu.emu;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams finished frames to a {@link FrameEncoder} on a background thread. Meant to be called
+ * from the scheduler's frame listener, so it sees every emulated frame, headless too, and not only
+ * the ones that happened to be drawn.
+ * <p>
+ * A frame whose generation didn't change since the last one is not even copied, and the encoder thread
+ * drops frames with the same pixels as the one before, so a still screen costs nothing and ends up
+ * as one long frame. Changed frames are copied into one of a fixed pool of buffers and handed over
+ * through lock-free single-producer single-consumer rings, one for queued and one for free buffers.
+ * When the encoder falls behind and the pool runs out, the frame is dropped and counted,
+ * or with {@link #setBlocking(boolean)} the machine waits for a free buffer instead.
+ * Nothing is allocated per frame on either side.
+ */
+public class FrameCapture implements Runnable {
+
+    public static final int DEFAULT_QUEUE_FRAMES = 32;
+
+    //a waiting side polls at least this often, in case a wake-up slipped between its check and parking
+    private static final long WAIT_NANOS = 1000000;
+
+    private static class Slot {
+        final FrameBuffer pixels = new FrameBuffer();
+        long frame;
+    }
+
+    //same scheme as KeyEventQueue, holding buffers instead of key events
+    private static class SlotRing {
+        private final Slot[] slots;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        SlotRing(int capacity) {
+            slots = new Slot[capacity];
+        }
+
+        //never full, there are only as many slots as fit
+        void offer(Slot slot) {
+            long t = tail.get();
+            slots[(int) (t % slots.length)] = slot;
+            tail.lazySet(t + 1);
+        }
+
+        //null if empty
+        Slot poll() {
+            long h = head.get();
+            if (h == tail.get())
+                return null;
+            Slot slot = slots[(int) (h % slots.length)];
+            head.lazySet(h + 1);
+            return slot;
+        }
+    }
+
+    private final FrameEncoder encoder;
+    //machine to encoder, one more for the end marker
+    private final SlotRing queued;
+    //encoder back to machine
+    private final SlotRing free;
+    //tells the encoder thread that nothing more is coming
+    private final Slot end = new Slot();
+
+    private boolean blocking;
+    private Thread thread;
+    private volatile Thread machineThread;
+    private volatile boolean encoderWaiting;
+    private volatile boolean machineWaiting;
+
+    //machine side
+    private long lastGeneration = -1;
+    private long lastFrame = -1;
+    private volatile long capturedFrames;
+    private volatile long droppedFrames;
+
+    //encoder side
+    private final FrameBuffer previous = new FrameBuffer();
+    private boolean hasPrevious;
+    private volatile long encodedFrames;
+    private volatile IOException failure;
+
+    public FrameCapture(FrameEncoder encoder) {
+        this(encoder, DEFAULT_QUEUE_FRAMES);
+    }
+
+    public FrameCapture(FrameEncoder encoder, int queueFrames) {
+        this.encoder = encoder;
+        queued = new SlotRing(queueFrames + 1);
+        free = new SlotRing(queueFrames);
+        for (int i = 0; i < queueFrames; i++) {
+            free.offer(new Slot());
+        }
+    }
+
+    //waits for the encoder instead of dropping frames, for headless runs where every frame counts
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+
+    public void start() {
+        thread = new Thread(this, "chip8-capture");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Call on the thread running the machine, after every frame.
+     *
+     * @param frame number of frames emulated so far, {@link Scheduler#getFrame()}
+     */
+    public void capture(FrameBuffer frameBuffer, long frame) {
+        lastFrame = frame;
+        if (frameBuffer.getGeneration() == lastGeneration || failure != null)
+            return;
+
+        Slot slot = free.poll();
+        if (slot == null && blocking)
+            slot = waitForFree();
+        if (slot == null) {
+            droppedFrames++;
+            return;
+        }
+        lastGeneration = frameBuffer.getGeneration();
+        slot.pixels.set(frameBuffer);
+        slot.frame = frame;
+        enqueue(slot);
+        capturedFrames++;
+    }
+
+    //null only if the encoder failed
+    private Slot waitForFree() {
+        machineThread = Thread.currentThread();
+        while (true) {
+            machineWaiting = true;
+            Slot slot = free.poll();
+            if (slot != null || failure != null) {
+                machineWaiting = false;
+                return slot;
+            }
+            LockSupport.parkNanos(this, WAIT_NANOS);
+        }
+    }
+
+    private void enqueue(Slot slot) {
+        queued.offer(slot);
+        if (encoderWaiting)
+            LockSupport.unpark(thread);
+    }
+
+    /**
+     * Encodes what is still queued, finishes the output and stops the thread.
+     * Call on the thread running the machine, or once it doesn't capture anymore.
+     *
+     * @throws IOException if the encoder failed at any point
+     */
+    public void stop() throws IOException {
+        //the last frame lasts until the frame after the last one seen
+        end.frame = lastFrame + 1;
+        enqueue(end);
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Slot slot = queued.poll();
+            if (slot == null) {
+                encoderWaiting = true;
+                slot = queued.poll();
+                if (slot == null) {
+                    LockSupport.parkNanos(this, WAIT_NANOS);
+                    continue;
+                }
+            }
+            encoderWaiting = false;
+
+            try {
+                if (slot == end) {
+                    if (failure == null)
+                        encoder.finish(slot.frame);
+                    return;
+                }
+
+                //drawing and undrawing the same sprite changes the generation but not the picture
+                if (failure == null && !(hasPrevious && slot.pixels.equals(previous))) {
+                    encoder.frame(slot.pixels, slot.frame);
+                    previous.set(slot.pixels);
+                    hasPrevious = true;
+                    encodedFrames++;
+                }
+            } catch (IOException e) {
+                //the machine stops capturing, stop() reports it
+                failure = e;
+            }
+            free.offer(slot);
+            if (machineWaiting)
+                LockSupport.unpark(machineThread);
+        }
+    }
+
+    //frames copied into the queue
+    public long getCapturedFrames() {
+        return capturedFrames;
+    }
+
+    //frames lost because the encoder fell behind
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    //frames the encoder got, after dropping the ones that looked like the frame before
+    public long getEncodedFrames() {
+        return encodedFrames;
+    }
+
+    /**
+     * Palette index of every pixel, 0-3 by the planes it is lit on, in rows of 128 * scale.
+     * Low resolution pixels cover 2x2 high resolution ones so a capture can switch modes at the same size.
+     */
+    static void toIndices(FrameBuffer frameBuffer, int scale, byte[] indices) {
+        int factor = frameBuffer.isHighResolution() ? scale : scale * 2;
+        int width = FrameBuffer.HIRES_WIDTH * scale;
+        int words = frameBuffer.isHighResolution() ? FrameBuffer.WORDS : 1;
+
+        for (int y = 0; y < frameBuffer.getHeight(); y++) {
+            int row = y * factor * width;
+            int at = row;
+            for (int word = 0; word < words; word++) {
+                long plane0 = frameBuffer.getWord(0, y, word);
+                long plane1 = frameBuffer.getWord(1, y, word);
+                for (int x = 0; x < 64; x++) {
+                    byte index = (byte) ((plane0 >>> 63) | (plane1 >>> 63) << 1);
+                    plane0 <<= 1;
+                    plane1 <<= 1;
+                    for (int i = 0; i < factor; i++) {
+                        indices[at++] = index;
+                    }
+                }
+            }
+            for (int i = 1; i < factor; i++) {
+                System.arraycopy(indices, row, indices, row + i * width, width);
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.kierek.chip8emu.emu;
+
+import java.io.IOException;
+
+/**
+ * Writes captured frames somewhere, see {@link FrameCapture}. Only ever called on the capture's encoder thread,
+ * and only with frames that differ from the one before.
+ */
+public interface FrameEncoder {
+
+    //pixels shown from the given emulated frame on, only valid during the call
+    void frame(FrameBuffer pixels, long frame) throws IOException;
+
+    //the last frame is shown until the given emulated frame, nothing comes after this
+    void finish(long frame) throws IOException;
+}
@@ -0,0 +1,38 @@
+package com.kierek.chip8emu.emu;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.files.FileHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads ROMs from the internal assets.
+ */
+public class GdxRomSource implements RomSource {
+
+    @Override
+    public byte[] read(String path) {
+        return Gdx.files.internal(path).readBytes();
+    }
+
+    @Override
+    public String[] list(String directory) {
+        List<String> paths = new ArrayList<String>();
+        for (FileHandle file : Gdx.files.internal(directory).list()) {
+            if (!file.isDirectory()) paths.add(file.path());
+        }
+        return paths.toArray(new String[paths.size()]);
+    }
+
+    @Override
+    public long length(String path) {
+        return Gdx.files.internal(path).length();
+    }
+
+    //always 0 for Android assets, they only change with the app
+    @Override
+    public long lastModified(String path) {
+        return Gdx.files.internal(path).lastModified();
+    }
+}
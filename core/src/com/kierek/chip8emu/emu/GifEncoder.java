@@ -0,0 +1,239 @@
+package com.kierek.chip8emu.emu;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes captured frames as a looping animated GIF of 128x64 pixels times the scale, in the four colors
+ * of the screen. Every frame lasts until the next one starts, in the GIF's 1/100 s, and only the rows
+ * that changed since the frame before are stored.
+ * <p>
+ * Browsers slow down frames shorter than 2/100 s to 1/10 s, so a frame replaced sooner than that
+ * is dropped and the one replacing it takes its place; at 60 Hz that keeps every other frame of an animation
+ * that changes every frame. All buffers and the LZW table are allocated once.
+ */
+public class GifEncoder implements FrameEncoder {
+
+    //in 1/100 s
+    private static final int MIN_DELAY = 2;
+    private static final int MAX_DELAY = 0xFFFF;
+
+    //2 bits per pixel, codes grow from 3 to 12 bits
+    private static final int MIN_CODE_SIZE = 2;
+    private static final int CLEAR_CODE = 1 << MIN_CODE_SIZE;
+    private static final int MAX_CODE = 4095;
+
+    private final OutputStream out;
+    private final int scale;
+    private final int width;
+    private final int height;
+
+    //indices of the frame being written and of the one written before
+    private final byte[] indices;
+    private final byte[] previous;
+    private boolean first = true;
+
+    //frames are written once the next one tells how long they last
+    private final FrameBuffer pending = new FrameBuffer();
+    private boolean hasPending;
+    private long pendingFrame;
+
+    //next code for every code followed by every pixel value, 0 for none yet
+    private final int[] codes = new int[(MAX_CODE + 1) << MIN_CODE_SIZE];
+    private int bits;
+    private int bitCount;
+    //data sub-blocks are at most 255 bytes
+    private final byte[] block = new byte[255];
+    private int blockLength;
+
+    public GifEncoder(OutputStream out, int scale) throws IOException {
+        this.out = out;
+        this.scale = scale;
+        width = FrameBuffer.HIRES_WIDTH * scale;
+        height = FrameBuffer.HIRES_HEIGHT * scale;
+        indices = new byte[width * height];
+        previous = new byte[width * height];
+
+        writeAscii("GIF89a");
+        writeShort(width);
+        writeShort(height);
+        //global color table of 4 entries, 2 bits per color
+        out.write(0x91);
+        out.write(0);
+        out.write(0);
+        for (int color : FrameBuffer.COLORS) {
+            out.write(color >>> 24);
+            out.write(color >>> 16);
+            out.write(color >>> 8);
+        }
+
+        //loop forever
+        out.write(0x21);
+        out.write(0xFF);
+        out.write(11);
+        writeAscii("NETSCAPE2.0");
+        out.write(3);
+        out.write(1);
+        writeShort(0);
+        out.write(0);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void frame(FrameBuffer pixels, long frame) throws IOException {
+        if (hasPending) {
+            int delay = centis(frame) - centis(pendingFrame);
+            if (delay < MIN_DELAY) {
+                //replaced too soon to be seen, this one starts when the pending one would have
+                pending.set(pixels);
+                return;
+            }
+            writeFrame(delay);
+        }
+
+        pending.set(pixels);
+        pendingFrame = frame;
+        hasPending = true;
+    }
+
+    @Override
+    public void finish(long frame) throws IOException {
+        if (hasPending)
+            writeFrame(Math.max(MIN_DELAY, centis(frame) - centis(pendingFrame)));
+        out.write(0x3B);
+        out.close();
+    }
+
+    private static int centis(long frame) {
+        return (int) (frame * 100 / Scheduler.TIMER_HZ);
+    }
+
+    private void writeFrame(int delay) throws IOException {
+        FrameCapture.toIndices(pending, scale, indices);
+
+        //only the band of rows that changed, an unchanged frame still needs a row to carry its delay
+        int top = 0;
+        int bottom = height;
+        if (!first) {
+            while (top < height - 1 && rowEquals(top)) top++;
+            while (bottom > top + 1 && rowEquals(bottom - 1)) bottom--;
+        }
+        first = false;
+
+        //graphic control extension: keep the frame under the next one, delay
+        out.write(0x21);
+        out.write(0xF9);
+        out.write(4);
+        out.write(0x04);
+        writeShort(Math.min(delay, MAX_DELAY));
+        out.write(0);
+        out.write(0);
+
+        //image descriptor, no local color table
+        out.write(0x2C);
+        writeShort(0);
+        writeShort(top);
+        writeShort(width);
+        writeShort(bottom - top);
+        out.write(0);
+
+        compress(top * width, bottom * width);
+
+        System.arraycopy(indices, top * width, previous, top * width, (bottom - top) * width);
+    }
+
+    private boolean rowEquals(int y) {
+        int from = y * width;
+        for (int i = from; i < from + width; i++) {
+            if (indices[i] != previous[i]) return false;
+        }
+        return true;
+    }
+
+    //GIF flavored LZW: codes packed least significant bit first into sub-blocks
+    private void compress(int from, int to) throws IOException {
+        out.write(MIN_CODE_SIZE);
+        bits = 0;
+        bitCount = 0;
+        blockLength = 0;
+
+        Arrays.fill(codes, 0);
+        int codeSize = MIN_CODE_SIZE + 1;
+        int maxCode = CLEAR_CODE + 1;
+        writeCode(CLEAR_CODE, codeSize);
+
+        int current = indices[from];
+        for (int i = from + 1; i < to; i++) {
+            int pixel = indices[i];
+            int next = codes[(current << MIN_CODE_SIZE) | pixel];
+            if (next != 0) {
+                current = next;
+                continue;
+            }
+
+            writeCode(current, codeSize);
+            codes[(current << MIN_CODE_SIZE) | pixel] = ++maxCode;
+            if (maxCode >= (1 << codeSize))
+                codeSize++;
+            if (maxCode == MAX_CODE) {
+                writeCode(CLEAR_CODE, codeSize);
+                Arrays.fill(codes, 0);
+                codeSize = MIN_CODE_SIZE + 1;
+                maxCode = CLEAR_CODE + 1;
+            }
+            current = pixel;
+        }
+
+        writeCode(current, codeSize);
+        //reading that code adds one more entry on the decoder's side, which can widen the end code
+        if (maxCode + 1 >= (1 << codeSize) && codeSize < 12)
+            codeSize++;
+        writeCode(CLEAR_CODE + 1, codeSize);
+        if (bitCount > 0)
+            writeByte(bits);
+        if (blockLength > 0)
+            flushBlock();
+        out.write(0);
+    }
+
+    private void writeCode(int code, int size) throws IOException {
+        bits |= code << bitCount;
+        bitCount += size;
+        while (bitCount >= 8) {
+            writeByte(bits);
+            bits >>>= 8;
+            bitCount -= 8;
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        block[blockLength++] = (byte) b;
+        if (blockLength == block.length)
+            flushBlock();
+    }
+
+    private void flushBlock() throws IOException {
+        out.write(blockLength);
+        out.write(block, 0, blockLength);
+        blockLength = 0;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            out.write(text.charAt(i));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.kierek.chip8emu.emu;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes every captured frame into a file of its own, {@code frame-NNNNNNNN.png} or {@code .raw}
+ * named after the emulated frame it starts at, so the timing survives the deduplication.
+ * Frames are 128x64 pixels times the scale. PNGs are indexed in the four colors of the screen,
+ * raw files hold one byte per pixel, the planes it is lit on, row after row. Buffers are allocated once.
+ */
+public class ImageSequenceEncoder implements FrameEncoder {
+
+    public enum Format {
+        PNG, RAW
+    }
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final File directory;
+    private final Format format;
+    private final int scale;
+    private final int width;
+    private final int height;
+
+    private final byte[] indices;
+    //IHDR and PLTE are the same for every frame
+    private final byte[] header = new byte[13];
+    private final byte[] palette = new byte[FrameBuffer.COLORS.length * 3];
+    private final byte[] word = new byte[4];
+    //PNG rows, each after its filter byte
+    private final byte[] scanlines;
+    private byte[] compressed;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final CRC32 crc = new CRC32();
+
+    public ImageSequenceEncoder(File directory, Format format, int scale) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("can't create " + directory);
+        this.directory = directory;
+        this.format = format;
+        this.scale = scale;
+        width = FrameBuffer.HIRES_WIDTH * scale;
+        height = FrameBuffer.HIRES_HEIGHT * scale;
+        indices = new byte[width * height];
+        scanlines = new byte[(width + 1) * height];
+        compressed = new byte[scanlines.length / 4];
+
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        //8 bit palette indices
+        header[8] = 8;
+        header[9] = 3;
+        for (int i = 0; i < FrameBuffer.COLORS.length; i++) {
+            palette[i * 3] = (byte) (FrameBuffer.COLORS[i] >>> 24);
+            palette[i * 3 + 1] = (byte) (FrameBuffer.COLORS[i] >>> 16);
+            palette[i * 3 + 2] = (byte) (FrameBuffer.COLORS[i] >>> 8);
+        }
+    }
+
+    @Override
+    public void frame(FrameBuffer pixels, long frame) throws IOException {
+        FrameCapture.toIndices(pixels, scale, indices);
+
+        String name = String.format(Locale.US, "frame-%08d.%s", frame, format == Format.PNG ? "png" : "raw");
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(directory, name)));
+        try {
+            if (format == Format.PNG)
+                writePng(out);
+            else
+                out.write(indices);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public void finish(long frame) {
+        deflater.end();
+    }
+
+    private void writePng(OutputStream out) throws IOException {
+        out.write(PNG_SIGNATURE);
+
+        writeChunk(out, "IHDR", header, header.length);
+        writeChunk(out, "PLTE", palette, palette.length);
+
+        //filter type 0 on every row
+        for (int y = 0; y < height; y++) {
+            scanlines[y * (width + 1)] = 0;
+            System.arraycopy(indices, y * width, scanlines, y * (width + 1) + 1, width);
+        }
+        deflater.reset();
+        deflater.setInput(scanlines);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        writeChunk(out, "IDAT", compressed, length);
+        writeChunk(out, "IEND", compressed, 0);
+    }
+
+    private void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        putInt(word, 0, length);
+        out.write(word);
+
+        crc.reset();
+        for (int i = 0; i < 4; i++) {
+            word[i] = (byte) type.charAt(i);
+        }
+        out.write(word);
+        crc.update(word);
+        out.write(data, 0, length);
+        crc.update(data, 0, length);
+
+        putInt(word, 0, (int) crc.getValue());
+        out.write(word);
+    }
+
+    private static void putInt(byte[] to, int offset, int value) {
+        to[offset] = (byte) (value >>> 24);
+        to[offset + 1] = (byte) (value >>> 16);
+        to[offset + 2] = (byte) (value >>> 8);
+        to[offset + 3] = (byte) value;
+    }
+}
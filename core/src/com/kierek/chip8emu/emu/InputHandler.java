@@ -4,37 +4,80 @@ import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputProcessor;
 import com.kierek.chip8emu.Chip8Emu;
 
+/**
+ * Feeds libGDX key events into the emulated keypad, through a queue drained by whoever runs the machine.
+ */
 public class InputHandler implements InputProcessor {
 
     private static final String TAG = "InputHandler";
 
     private Chip8Emu emu;
 
-    private boolean[] keyState;
+    private KeyEventQueue keyEvents;
 
-    public InputHandler(Chip8Emu emu) {
+    public InputHandler(Chip8Emu emu, KeyEventQueue keyEvents) {
         this.emu = emu;
-        keyState = new boolean[16];
+        this.keyEvents = keyEvents;
     }
 
     @Override
     public boolean keyDown(int keycode) {
+        if (keycode == Input.Keys.BACKSPACE) {
+            emu.setRewinding(true);
+            return true;
+        }
+
         int hex = getHex(keycode);
         if (hex != -1)
-            keyState[getHex(keycode)] = true;
+            keyEvents.offer(hex, true);
         return true;
     }
 
     @Override
     public boolean keyUp(int keycode) {
+        if (keycode == Input.Keys.BACKSPACE) {
+            emu.setRewinding(false);
+            return true;
+        }
+
         if (keycode == Input.Keys.SPACE) {
             emu.reset();
             return true;
         }
 
+        if (keycode == Input.Keys.P) {
+            emu.setPaused(!emu.isPaused());
+            return true;
+        }
+
+        if (keycode == Input.Keys.F3) {
+            emu.setTelemetryShown(!emu.isTelemetryShown());
+            return true;
+        }
+
+        if (keycode == Input.Keys.F5) {
+            emu.saveState();
+            return true;
+        }
+
+        if (keycode == Input.Keys.F7) {
+            emu.saveRecording();
+            return true;
+        }
+
+        if (keycode == Input.Keys.F8) {
+            emu.toggleCapture();
+            return true;
+        }
+
+        if (keycode == Input.Keys.F9) {
+            emu.loadState();
+            return true;
+        }
+
         int hex = getHex(keycode);
         if (hex != -1)
-            keyState[getHex(keycode)] = false;
+            keyEvents.offer(hex, false);
         return true;
     }
 
@@ -45,6 +88,11 @@ public class InputHandler implements InputProcessor {
 
     @Override
     public boolean touchDown(int screenX, int screenY, int pointer, int button) {
+        //a second finger toggles telemetry where there is no keyboard
+        if (pointer == 1) {
+            emu.setTelemetryShown(!emu.isTelemetryShown());
+            return true;
+        }
         return false;
     }
 
@@ -68,10 +116,6 @@ public class InputHandler implements InputProcessor {
         return false;
     }
 
-    boolean getKeyStatus(int address) {
-        return keyState[address];
-    }
-
     private int getHex(int keycode) {
         switch (keycode) {
             case Input.Keys.NUMPAD_1:
@@ -0,0 +1,233 @@
+package com.kierek.chip8emu.emu;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Keypad changes tagged with the emulated frame they happen before, for scripted and reproducible runs.
+ * Frame numbers count frames already run, as in {@link Scheduler#getFrame()}, so an event at frame 0
+ * is seen by the very first frame.
+ * <p>
+ * A log can start from a {@link SaveState}, it then replays exactly what was recorded: the same state,
+ * clock and key changes give the same frames. The binary form, big-endian:
+ * <pre>
+ * int     magic "C8IN"
+ * byte    version
+ * int     clock in Hz
+ * int     length of the start state, 0 for none, then the state
+ * int     number of events, then for every event
+ * varint  frames since the previous event (since frame 0 for the first)
+ * byte    key in the low 4 bits, 0x10 if pressed
+ * </pre>
+ * <p>
+ * The text form has one event per line, {@code #} starts a comment:
+ * <pre>
+ * # frame  key  state
+ * 120      5    down
+ * 135      5    up
+ * </pre>
+ */
+public class InputLog {
+
+    public static final int MAGIC = 0x4338494E;
+    public static final int VERSION = 1;
+
+    private static final int PRESSED = 0x10;
+
+    private int clockHz = Scheduler.DEFAULT_CLOCK_HZ;
+    private byte[] startState;
+
+    private long[] frames = new long[64];
+    private byte[] keys = new byte[64];
+    private boolean[] pressed = new boolean[64];
+    private int size;
+
+    public void add(long frame, int key, boolean down) {
+        if (key < 0 || key > 0xF)
+            throw new IllegalArgumentException("no such key: " + key);
+        if (size > 0 && frame < frames[size - 1])
+            throw new IllegalArgumentException("events have to be in frame order: " + frame + " after " + frames[size - 1]);
+
+        if (size == frames.length) {
+            frames = Arrays.copyOf(frames, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+            pressed = Arrays.copyOf(pressed, size * 2);
+        }
+        frames[size] = frame;
+        keys[size] = (byte) key;
+        pressed[size] = down;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getFrame(int index) {
+        return frames[index];
+    }
+
+    public int getKey(int index) {
+        return keys[index];
+    }
+
+    public boolean isPressed(int index) {
+        return pressed[index];
+    }
+
+    //drops the events at and after the given frame, for when the machine went back in time
+    public void truncate(long frame) {
+        while (size > 0 && frames[size - 1] >= frame) {
+            size--;
+        }
+    }
+
+    public int getClockHz() {
+        return clockHz;
+    }
+
+    public void setClockHz(int clockHz) {
+        this.clockHz = clockHz;
+    }
+
+    //save state the events start from, null to start from a freshly loaded ROM
+    public byte[] getStartState() {
+        return startState;
+    }
+
+    public void setStartState(byte[] startState) {
+        this.startState = startState;
+    }
+
+    public byte[] toBytes() {
+        int length = 4 + 1 + 4 + 4 + (startState != null ? startState.length : 0) + 4;
+        //a frame delta takes at most 10 bytes
+        ByteBuffer out = ByteBuffer.allocate(length + size * 11);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.putInt(clockHz);
+        if (startState != null) {
+            out.putInt(startState.length);
+            out.put(startState);
+        } else {
+            out.putInt(0);
+        }
+
+        out.putInt(size);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            long delta = frames[i] - previous;
+            while (delta > 0x7F) {
+                out.put((byte) (delta | 0x80));
+                delta >>>= 7;
+            }
+            out.put((byte) delta);
+            out.put((byte) (keys[i] | (pressed[i] ? PRESSED : 0)));
+            previous = frames[i];
+        }
+
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data isn't an input log this version can read
+     */
+    public static InputLog fromBytes(byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        InputLog log = new InputLog();
+        try {
+            if (in.getInt() != MAGIC)
+                throw new IllegalArgumentException("not an input log");
+            int version = in.get();
+            if (version != VERSION)
+                throw new IllegalArgumentException("unsupported input log version " + version);
+
+            log.clockHz = in.getInt();
+            int stateLength = in.getInt();
+            if (stateLength > 0) {
+                log.startState = new byte[stateLength];
+                in.get(log.startState);
+            }
+
+            int count = in.getInt();
+            long frame = 0;
+            for (int i = 0; i < count; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = in.get();
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                frame += delta;
+
+                int event = in.get();
+                log.add(frame, event & 0xF, (event & PRESSED) != 0);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("input log is truncated", e);
+        }
+        return log;
+    }
+
+    public static InputLog parse(String text) {
+        InputLog log = new InputLog();
+        String[] lines = text.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int comment = line.indexOf('#');
+            if (comment != -1)
+                line = line.substring(0, comment);
+            line = line.trim();
+            if (line.length() == 0)
+                continue;
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 3 || !(fields[2].equals("down") || fields[2].equals("up")))
+                throw new IllegalArgumentException("line " + (i + 1) + ": expected <frame> <key> down|up, got " + line);
+            try {
+                log.add(Long.parseLong(fields[0]), Integer.parseInt(fields[1], 16), fields[2].equals("down"));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return log;
+    }
+
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            text.append(frames[i]).append(' ')
+                    .append(Integer.toHexString(keys[i]).toUpperCase()).append(' ')
+                    .append(pressed[i] ? "down" : "up").append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Walks a log forward, one player per run.
+     */
+    public static class Player {
+
+        private final InputLog log;
+        private int position;
+
+        public Player(InputLog log) {
+            this.log = log;
+        }
+
+        //applies every event up to and including the given frame
+        public void apply(long frame, KeyState keys) {
+            while (position < log.size && log.frames[position] <= frame) {
+                keys.setKey(log.keys[position], log.pressed[position]);
+                position++;
+            }
+        }
+
+        public boolean isFinished() {
+            return position == log.size;
+        }
+    }
+}
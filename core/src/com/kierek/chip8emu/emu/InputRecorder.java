@@ -0,0 +1,77 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Records the keypad of a running machine into an {@link InputLog} that replays the session exactly.
+ * Call {@link #record()} wherever queued key events are drained, right before emulating:
+ * every key that changed since the last call is logged against the frame about to run,
+ * so replays see the very same key state on the very same frames.
+ * <p>
+ * When the machine goes back in time, by rewinding, the events after that point are dropped
+ * and the log follows the new timeline. Rewinding past the start of the log starts a new one.
+ */
+public class InputRecorder {
+
+    private final Machine machine;
+    private final KeyState keys;
+    private InputLog log;
+
+    //keypad as the log has it so far
+    private final boolean[] logged = new boolean[16];
+    private long startFrame;
+    private long lastFrame;
+
+    public InputRecorder(Machine machine, KeyState keys) {
+        this.machine = machine;
+        this.keys = keys;
+        restart();
+    }
+
+    //starts a new log from the machine's current state, also needed after a save state was loaded
+    public void restart() {
+        log = new InputLog();
+        log.setClockHz(machine.getScheduler().getClockHz());
+        log.setStartState(SaveState.save(machine));
+
+        for (int key = 0; key < logged.length; key++) {
+            logged[key] = false;
+        }
+        startFrame = machine.getScheduler().getFrame();
+        lastFrame = startFrame;
+        record();
+    }
+
+    public void record() {
+        long frame = machine.getScheduler().getFrame();
+        if (frame < startFrame) {
+            //back before the start state, the log can't lead there any more
+            restart();
+            return;
+        }
+        if (frame < lastFrame) {
+            log.truncate(frame);
+            replayLogged();
+        }
+        lastFrame = frame;
+
+        for (int key = 0; key < logged.length; key++) {
+            boolean down = keys.isKeyPressed(key);
+            if (down != logged[key]) {
+                log.add(frame, key, down);
+                logged[key] = down;
+            }
+        }
+    }
+
+    public InputLog getLog() {
+        return log;
+    }
+
+    private void replayLogged() {
+        for (int key = 0; key < logged.length; key++) {
+            logged[key] = false;
+        }
+        for (int i = 0; i < log.size(); i++) {
+            logged[log.getKey(i)] = log.isPressed(i);
+        }
+    }
+}
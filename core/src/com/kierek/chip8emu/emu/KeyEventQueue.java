@@ -0,0 +1,45 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer single-consumer queue of keypad events.
+ * The input thread offers, the thread running the machine drains them into its {@link KeyState}
+ * right before emulating, which also gives the key state proper visibility between the threads.
+ */
+public class KeyEventQueue {
+
+    //power of two, far more than can be typed between two frames
+    private static final int CAPACITY = 256;
+    private static final int PRESSED = 0x10;
+
+    private final int[] events = new int[CAPACITY];
+
+    //next event to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //next free slot, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    //returns false when the queue is full and the event was dropped
+    public boolean offer(int key, boolean pressed) {
+        long t = tail.get();
+        if (t - head.get() == CAPACITY)
+            return false;
+
+        events[(int) t & (CAPACITY - 1)] = key | (pressed ? PRESSED : 0);
+        //publishes the event written above
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    public void drainTo(KeyState keys) {
+        long h = head.get();
+        long t = tail.get();
+        while (h != t) {
+            int event = events[(int) h & (CAPACITY - 1)];
+            keys.setKey(event & 0xF, (event & PRESSED) != 0);
+            h++;
+        }
+        head.lazySet(h);
+    }
+}
@@ -0,0 +1,24 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Keypad backed by a plain array, for headless runs and scripted input.
+ */
+public class KeyState implements Keypad {
+
+    private final boolean[] pressed = new boolean[16];
+
+    @Override
+    public boolean isKeyPressed(int key) {
+        return pressed[key];
+    }
+
+    public void setKey(int key, boolean down) {
+        pressed[key] = down;
+    }
+
+    public void releaseAll() {
+        for (int i = 0; i < pressed.length; i++) {
+            pressed[i] = false;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Hex keypad with keys 0x0-0xF, as seen by the processor.
+ */
+public interface Keypad {
+
+    boolean isKeyPressed(int key);
+}
@@ -0,0 +1,65 @@
+package com.kierek.chip8emu.emu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Complete emulated machine: processor, display and scheduler, with keypad and sound supplied from outside.
+ * Has no libGDX dependency, so it runs the same in the app, on CI boxes and in benchmarks.
+ */
+public class Machine {
+
+    private final FrameBuffer frameBuffer;
+    private final Processor processor;
+    private final Scheduler scheduler;
+
+    public Machine(Keypad keypad) {
+        this(keypad, SoundOutput.NONE, new TableEngine());
+    }
+
+    public Machine(Keypad keypad, SoundOutput sound, ExecutionEngine engine) {
+        frameBuffer = new FrameBuffer();
+        processor = new Processor(frameBuffer, keypad, sound, engine);
+        scheduler = new Scheduler(processor);
+    }
+
+    public void loadROM(byte[] rom) {
+        processor.loadROM(rom);
+    }
+
+    //the platform is guessed from the file name and size, see Platform.detect
+    public void loadROM(RomSource source, String path) {
+        byte[] rom = source.read(path);
+        loadROM(rom, Platform.detect(path, rom));
+    }
+
+    public void loadROM(byte[] rom, Platform platform) {
+        processor.setPlatform(platform);
+        processor.loadROM(rom);
+    }
+
+    //emulates the given number of 1/60 s frames, ignoring host time
+    public void runFrames(int count) {
+        scheduler.runFrames(count);
+    }
+
+    //snapshots everything but the keypad, see SaveState for the format
+    public void saveState(ByteBuffer out) {
+        SaveState.save(this, out);
+    }
+
+    public void loadState(ByteBuffer in) {
+        SaveState.load(this, in);
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return frameBuffer;
+    }
+
+    public Processor getProcessor() {
+        return processor;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+}
@@ -0,0 +1,42 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.Locale;
+
+/**
+ * Machine a ROM was written for. The processor always understands the SUPER-CHIP and XO-CHIP instructions,
+ * none of them means anything else on the original machine, so the platform only decides the memory size.
+ */
+public enum Platform {
+
+    CHIP_8(0x1000),
+    //128x64 mode, 16x16 sprites, scrolling, large font and flag registers
+    SUPER_CHIP(0x1000),
+    //SUPER-CHIP plus two bitplanes, 64 KB of memory, F000 NNNN and audio patterns
+    XO_CHIP(0x10000);
+
+    //programs are loaded here on every platform
+    public static final int PROGRAM_START = 0x200;
+
+    private final int memorySize;
+
+    Platform(int memorySize) {
+        this.memorySize = memorySize;
+    }
+
+    public int getMemorySize() {
+        return memorySize;
+    }
+
+    //largest ROM that fits into memory after the interpreter area
+    public int getMaxRomSize() {
+        return memorySize - PROGRAM_START;
+    }
+
+    //by the usual file extensions, .sc8 and .xo8, and by size, anything bigger than 4 KB of memory is XO-CHIP
+    public static Platform detect(String fileName, byte[] rom) {
+        String name = fileName.toLowerCase(Locale.US);
+        if (name.endsWith(".xo8") || rom.length > CHIP_8.getMaxRomSize()) return XO_CHIP;
+        if (name.endsWith(".sc8")) return SUPER_CHIP;
+        return CHIP_8;
+    }
+}
@@ -1,11 +1,6 @@
 package com.kierek.chip8emu.emu;
 
-import com.badlogic.gdx.Gdx;
-import com.kierek.chip8emu.Chip8Emu;
-
 import java.util.Arrays;
-import java.util.LinkedList;
-import java.util.Random;
 
 public class Processor {
 
@@ -30,76 +25,228 @@ public class Processor {
             0xF0, 0x80, 0xF0, 0x80, 0x80  // F
     };
 
-    //needed for CXNN opcode;
-    private Random ran;
-
-    private int[] memory;
-    private int[] register;
+    //8x10 digits of SUPER-CHIP, with XO-CHIP's A-F, right after the small font
+    static final int BIG_FONT_ADDRESS = 0x50;
+    private static final int bigFontset[] = new int[]{
+            0x3C, 0x7E, 0xE7, 0xC3, 0xC3, 0xC3, 0xC3, 0xE7, 0x7E, 0x3C, // 0
+            0x18, 0x38, 0x58, 0x18, 0x18, 0x18, 0x18, 0x18, 0x18, 0x3C, // 1
+            0x3E, 0x7F, 0xC3, 0x06, 0x0C, 0x18, 0x30, 0x60, 0xFF, 0xFF, // 2
+            0x3C, 0x7E, 0xC3, 0x03, 0x0E, 0x0E, 0x03, 0xC3, 0x7E, 0x3C, // 3
+            0x06, 0x0E, 0x1E, 0x36, 0x66, 0xC6, 0xFF, 0xFF, 0x06, 0x06, // 4
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFC, 0xFE, 0x03, 0xC3, 0x7E, 0x3C, // 5
+            0x3E, 0x7C, 0xE0, 0xC0, 0xFC, 0xFE, 0xC3, 0xC3, 0x7E, 0x3C, // 6
+            0xFF, 0xFF, 0x03, 0x06, 0x0C, 0x18, 0x30, 0x60, 0x60, 0x60, // 7
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7E, 0x7E, 0xC3, 0xC3, 0x7E, 0x3C, // 8
+            0x3C, 0x7E, 0xC3, 0xC3, 0x7F, 0x3F, 0x03, 0x03, 0x3E, 0x7C, // 9
+            0x7E, 0xFF, 0xC3, 0xC3, 0xC3, 0xFF, 0xFF, 0xC3, 0xC3, 0xC3, // A
+            0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, 0xC3, 0xC3, 0xFC, 0xFC, // B
+            0x3C, 0xFF, 0xC3, 0xC0, 0xC0, 0xC0, 0xC0, 0xC3, 0xFF, 0x3C, // C
+            0xFC, 0xFE, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xC3, 0xFE, 0xFC, // D
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, // E
+            0xFF, 0xFF, 0xC0, 0xC0, 0xFF, 0xFF, 0xC0, 0xC0, 0xC0, 0xC0  // F
+    };
 
-    //needed for performing jumps to subroutines
-    private LinkedList<Integer> stack;
+    //state is package-private so execution engines can work on it directly
 
-    //programCounter points to memory location with next opcode
-    private int programCounter;
-    private int addressPointer;
+    //needed for CXNN opcode, seeded with 0 unless told otherwise so headless runs repeat exactly
+    RandomSource random;
 
-    private int delayTimer, soundTimer;
+    int[] memory;
+    int[] register;
 
-    private Chip8Emu emu;
+    //needed for performing jumps to subroutines, 16 levels like the original interpreter
+    static final int STACK_SIZE = 16;
+    final int[] stack = new int[STACK_SIZE];
+    int stackPointer;
 
-    private float runTime;
+    //programCounter points to memory location with next opcode
+    int programCounter;
+    int addressPointer;
+
+    int delayTimer, soundTimer;
+
+    //SUPER-CHIP's RPL user flags, written by FX75 and read by FX85, XO-CHIP has 16 of them
+    final int[] flags = new int[16];
+    //XO-CHIP audio: a 128 bit sample pattern loaded by F002 and its playback pitch set by FX3A
+    static final int DEFAULT_PITCH = 64;
+    final int[] audioPattern = new int[16];
+    int pitch = DEFAULT_PITCH;
+
+    private Platform platform = Platform.CHIP_8;
+
+    //everything outside the CPU is reached through these, none of them needs libGDX
+    Display display;
+    Keypad keypad;
+    private SoundOutput sound;
+    private boolean buzzing;
+
+    private ExecutionEngine engine;
+    private ProgramAnalysis analysis;
+
+    //longest backward jump, in bytes, still checked for being an idle loop
+    static final int MAX_IDLE_LOOP = 32;
+
+    //keys and timers only change between frames, so a loop touching nothing but registers
+    //comes back to the same state over and over until the frame ends
+    private boolean idleSkipping = true;
+    private long skippedInstructions;
+    //per jump address: 0 not checked yet, IDLE_LOOP or BUSY_LOOP
+    private static final byte IDLE_LOOP = 1, BUSY_LOOP = 2;
+    private byte[] loopKind = new byte[0x1000];
+    //the last time a backward jump was taken in this frame
+    private int idleJump = -1;
+    private int idleExecuted;
+    private int idleAddressPointer;
+    private final int[] idleRegister = new int[16];
+
+    public Processor(Display display, Keypad keypad) {
+        this(display, keypad, SoundOutput.NONE, new TableEngine());
+    }
 
-    public Processor(Chip8Emu emu) {
-        this.emu = emu;
-        ran = new Random();
+    public Processor(Display display, Keypad keypad, SoundOutput sound, ExecutionEngine engine) {
+        this.display = display;
+        this.keypad = keypad;
+        this.sound = sound;
+        this.engine = engine;
+        random = new XorShiftRandom(0);
 
         //These machines had 4096 (0x1000) memory locations
-        memory = new int[0x1000];
+        memory = new int[platform.getMemorySize()];
         //register named from V0 to VF
         register = new int[16];
 
-        //in 0x000-0x1FF was an interpreter, so we can store font data here
-        System.arraycopy(fontset, 0, memory, 0, fontset.length);
+        loadFonts();
     }
 
-    public void emulateCycle(float deltaTime) {
-        //hacky solution for controlling emulation speed
-        while (runTime < .1f) {
-            decodeOpCode(getNextOpCode());
-
-            //need to do something about speed and timers
-            runTime += deltaTime;
+    //XO-CHIP programs get 64 KB of memory, switching platforms drops the loaded program
+    public void setPlatform(Platform platform) {
+        if (platform.getMemorySize() != memory.length) {
+            memory = new int[platform.getMemorySize()];
+            loopKind = new byte[memory.length];
+            loadFonts();
+            memoryWritten(0, memory.length);
         }
+        this.platform = platform;
+    }
+
+    public Platform getPlatform() {
+        return platform;
+    }
+
+    //the same ROM, seed and input give the same frames, on every engine
+    public void setRandomSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    public RandomSource getRandomSource() {
+        return random;
+    }
+
+    public void setRandomSource(RandomSource random) {
+        this.random = random;
+    }
+
+    //lets engines skip turns of wait loops, they end the frame in exactly the same state either way
+    public void setIdleSkipping(boolean idleSkipping) {
+        this.idleSkipping = idleSkipping;
+    }
+
+    public boolean isIdleSkipping() {
+        return idleSkipping;
+    }
+
+    //instructions skipped in idle loops since the processor was created
+    public long getSkippedInstructions() {
+        return skippedInstructions;
+    }
+
+    //emulates one 1/60 s frame: the given number of instructions followed by one tick of both timers
+    public void runFrame(int cycles) {
+        idleJump = -1;
+        engine.execute(this, cycles);
+
+        //the buzzer sounds for every frame that ends with the timer running, FX18 with 1 is a 1/60 s beep
+        updateSound();
+        sound.endFrame(audioPattern, pitch);
 
         if (delayTimer > 0) delayTimer--;
         if (soundTimer > 0) {
             soundTimer--;
         }
+    }
 
-        runTime = 0;
+    //tells the sound output when the buzzer has to start or stop
+    void updateSound() {
+        if (buzzing != soundTimer > 0) {
+            buzzing = soundTimer > 0;
+            sound.setPlaying(buzzing);
+        }
     }
 
-    private int getNextOpCode() {
+    int getNextOpCode() {
         //since every opcode is 2 bytes long, we need to fetch them
         //and then merge into one
 
+        //XO-CHIP code can reach the last byte of memory, the second byte and the counter wrap around
+        int mask = memory.length - 1;
         int op1 = memory[programCounter];
-        int op2 = memory[programCounter + 1];
+        int op2 = memory[(programCounter + 1) & mask];
 
-        programCounter += 2;
+        programCounter = (programCounter + 2) & mask;
 
         return ((op1 << 8) | op2);
     }
 
-    private void decodeOpCode(int opcode) {
+    //reference implementation, used by SwitchEngine
+    void decodeOpCode(int opcode) {
         switch (opcode) {
             //Clears the screen.
             case 0x00E0:
-                emu.getRenderer().clearDisplay();
+                display.clear();
                 return;
             //Returns from a subroutine.
             case 0x00EE:
-                programCounter = stack.pop();
+                programCounter = pop();
+                return;
+            //00FB = Scrolls the display right by 4 pixels. (SUPER-CHIP)
+            case 0x00FB:
+                display.scrollRight();
+                return;
+            //00FC = Scrolls the display left by 4 pixels. (SUPER-CHIP)
+            case 0x00FC:
+                display.scrollLeft();
+                return;
+            //00FD = Exits the interpreter, the program stays on this instruction. (SUPER-CHIP)
+            case 0x00FD:
+                programCounter = (programCounter - 2) & (memory.length - 1);
+                return;
+            //00FE = Switches to 64x32. (SUPER-CHIP)
+            case 0x00FE:
+                display.setHighResolution(false);
+                return;
+            //00FF = Switches to 128x64. (SUPER-CHIP)
+            case 0x00FF:
+                display.setHighResolution(true);
+                return;
+            //F000 NNNN = Sets I to the 16 bit address NNNN that follows the instruction. (XO-CHIP)
+            case 0xF000:
+                addressPointer = (memory[programCounter] << 8) | memory[(programCounter + 1) & (memory.length - 1)];
+                programCounter = (programCounter + 2) & (memory.length - 1);
+                return;
+            //F002 = Loads the 16 byte audio pattern at I. (XO-CHIP)
+            case 0xF002:
+                loadAudioPattern();
+                return;
+        }
+
+        switch (opcode & 0xFFF0) {
+            //00CN = Scrolls the display down by N pixels. (SUPER-CHIP)
+            case 0x00C0:
+                display.scrollDown(opcode & 0xF);
+                return;
+            //00DN = Scrolls the display up by N pixels. (XO-CHIP)
+            case 0x00D0:
+                display.scrollUp(opcode & 0xF);
                 return;
         }
 
@@ -111,7 +258,7 @@ public class Processor {
             //2NNN = call subroutine at NNN;
             case 0x2000:
                 //store current position in stack to return later
-                stack.push(programCounter);
+                push(programCounter);
 
                 //go to subroutine address
                 programCounter = opcode & 0xFFF;
@@ -119,12 +266,12 @@ public class Processor {
             //3XNN = Skips the next instruction if register[X] equals NN.
             case 0x3000:
                 if (register[(opcode & 0xF00) >>> 8] == (opcode & 0xFF))
-                    programCounter += 2;
+                    skipNext();
                 return;
             //4XNN = Skips he next instruction if register[X] doesn't equal NN.
             case 0x4000:
                 if (register[(opcode & 0xF00) >>> 8] != (opcode & 0xFF)) {
-                    programCounter += 2;
+                    skipNext();
                 }
                 return;
             //6XNN = Sets register[X] to NN.
@@ -145,11 +292,11 @@ public class Processor {
                 return;
             //BNNN = Jumps to the address NNN plus V0.
             case 0xB000:
-                programCounter = (opcode & 0xFFF) + register[0];
+                programCounter = ((opcode & 0xFFF) + register[0]) & (memory.length - 1);
                 return;
             //CXNN = Sets register[X] to the result of a bitwise and operation on a random number (Typically: 0 to 255) and NN.
             case 0xC000:
-                register[(opcode & 0xF00) >>> 8] = ((ran.nextInt(256)) & (opcode & 0xFF));
+                register[(opcode & 0xF00) >>> 8] = (random.nextByte() & (opcode & 0xFF));
                 return;
             //DXYN
             //Draws a sprite at coordinate (VX, VY) that has a width of 8 pixels and a height of N pixels.
@@ -164,11 +311,8 @@ public class Processor {
                 int y = register[(opcode & 0xF0) >>> 4];
                 int height = opcode & 0xF;
 
-                int[] sprite = new int[height];
-
-                System.arraycopy(memory, addressPointer, sprite, 0, height);
-
-                register[0xF] |= emu.getRenderer().drawSprite(x, y, sprite) ? 1 : 0;
+                //sprite rows are read straight from memory, nothing is copied
+                register[0xF] |= display.drawSprite(x, y, memory, addressPointer, height) ? 1 : 0;
                 return;
         }
 
@@ -176,7 +320,15 @@ public class Processor {
             //5XY0 = Skips the next instruction if VX equals VY.
             case 0x5000:
                 if (register[(opcode & 0xF00) >>> 8] == register[(opcode & 0xF0) >>> 4])
-                    programCounter += 2;
+                    skipNext();
+                return;
+            //5XY2 = Stores VX to VY in memory starting at address I, in either direction, I doesn't change. (XO-CHIP)
+            case 0x5002:
+                storeRange((opcode & 0xF00) >>> 8, (opcode & 0xF0) >>> 4);
+                return;
+            //5XY3 = Loads VX to VY from memory starting at address I, in either direction, I doesn't change. (XO-CHIP)
+            case 0x5003:
+                loadRange((opcode & 0xF00) >>> 8, (opcode & 0xF0) >>> 4);
                 return;
             //8XY0 = Sets VX to the value of VY.
             case 0x8000:
@@ -244,7 +396,7 @@ public class Processor {
             //9XY0 = Skips the next instruction if VX doesn't equal VY.
             case 0x9000:
                 if (register[(opcode & 0xF00) >>> 8] != register[(opcode & 0xF0) >>> 4]) {
-                    programCounter += 2;
+                    skipNext();
                 }
                 return;
         }
@@ -252,14 +404,14 @@ public class Processor {
         switch (opcode & 0xF0FF) {
             //EX9E = Skips the next instruction if the key stored in VX is pressed.
             case 0xE09E:
-                if (emu.getInput().getKeyStatus(register[(opcode & 0xF00) >>> 8])) {
-                    programCounter += 2;
+                if (keypad.isKeyPressed(register[(opcode & 0xF00) >>> 8])) {
+                    skipNext();
                 }
                 return;
             //EXA1 = Skips the next instruction if the key stored in VX isn't pressed.
             case 0xE0A1:
-                if (!emu.getInput().getKeyStatus(register[(opcode & 0xF00) >>> 8])) {
-                    programCounter += 2;
+                if (!keypad.isKeyPressed(register[(opcode & 0xF00) >>> 8])) {
+                    skipNext();
                 }
                 return;
             //FX07 	= Sets VX to the value of the delay timer.
@@ -268,7 +420,7 @@ public class Processor {
                 return;
             //FX0A = A key press is awaited, and then stored in VX. (Blocking Operation. All instruction halted until next key event)
             case 0xF00A:
-                Gdx.app.log(TAG, "notImplemented: " + Integer.toHexString(opcode));
+                waitForKey((opcode & 0xF00) >>> 8);
                 return;
             //FX15 = Sets the delay timer to VX.
             case 0xF015:
@@ -276,12 +428,12 @@ public class Processor {
                 return;
             //FX18 = Sets the sound timer to VX.
             case 0xF018:
-                soundTimer = (opcode & 0xF00) >>> 8;
+                soundTimer = register[(opcode & 0xF00) >>> 8];
                 return;
             //FX1E = Adds VX to I.
             case 0xF01E:
                 addressPointer += register[(opcode & 0xF00) >>> 8];
-                addressPointer &= 0xFFF;
+                addressPointer &= memory.length - 1;
                 return;
             //FX29 = Sets I to the location of the sprite for the character in VX. Characters 0-F (in hexadecimal) are represented by a 4x5 font.
             case 0xF029:
@@ -300,27 +452,206 @@ public class Processor {
                 memory[addressPointer] = hundreds;
                 memory[addressPointer + 1] = tens;
                 memory[addressPointer + 2] = units;
+                memoryWritten(addressPointer, 3);
                 return;
             //FX55 = Stores V0 to VX (including VX) in memory starting at address I.
             case 0xF055:
                 System.arraycopy(register, 0, memory, addressPointer, ((opcode & 0xF00) >>> 8) + 1);
+                memoryWritten(addressPointer, ((opcode & 0xF00) >>> 8) + 1);
                 return;
             //FX65 = Fills V0 to VX (including VX) with values from memory starting at address I.
             case 0xF065:
                 System.arraycopy(memory, addressPointer, register, 0, ((opcode & 0xF00) >>> 8) + 1);
+                return;
+            //FN01 = Selects the bitplanes N that drawing, clearing and scrolling work on. (XO-CHIP)
+            case 0xF001:
+                display.selectPlanes((opcode & 0xF00) >>> 8);
+                return;
+            //FX30 = Sets I to the large 8x10 sprite for the character in VX. (SUPER-CHIP)
+            case 0xF030:
+                addressPointer = BIG_FONT_ADDRESS + register[(opcode & 0xF00) >>> 8] * 10;
+                return;
+            //FX3A = Sets the audio pattern playback pitch to VX. (XO-CHIP)
+            case 0xF03A:
+                pitch = register[(opcode & 0xF00) >>> 8];
+                return;
+            //FX75 = Stores V0 to VX (including VX) in the user flags. (SUPER-CHIP)
+            case 0xF075:
+                System.arraycopy(register, 0, flags, 0, ((opcode & 0xF00) >>> 8) + 1);
+                return;
+            //FX85 = Fills V0 to VX (including VX) from the user flags. (SUPER-CHIP)
+            case 0xF085:
+                System.arraycopy(flags, 0, register, 0, ((opcode & 0xF00) >>> 8) + 1);
+        }
+    }
+
+    //skips the next instruction, F000 NNNN is two words long
+    void skipNext() {
+        int mask = memory.length - 1;
+        programCounter = (programCounter + (memory[programCounter] == 0xF0 && memory[(programCounter + 1) & mask] == 0x00 ? 4 : 2)) & mask;
+    }
+
+    void storeRange(int x, int y) {
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for (int i = 0; i < count; i++) {
+            memory[addressPointer + i] = register[x + i * step];
+        }
+        memoryWritten(addressPointer, count);
+    }
+
+    void loadRange(int x, int y) {
+        int step = x <= y ? 1 : -1;
+        int count = Math.abs(y - x) + 1;
+        for (int i = 0; i < count; i++) {
+            register[x + i * step] = memory[addressPointer + i];
+        }
+    }
+
+    void loadAudioPattern() {
+        System.arraycopy(memory, addressPointer, audioPattern, 0, audioPattern.length);
+    }
+
+    void push(int address) {
+        if (stackPointer == STACK_SIZE)
+            throw new IllegalStateException("stack overflow at 0x" + Integer.toHexString(programCounter - 2));
+        stack[stackPointer++] = address;
+    }
+
+    int pop() {
+        if (stackPointer == 0)
+            throw new IllegalStateException("stack underflow at 0x" + Integer.toHexString(programCounter - 2));
+        return stack[--stackPointer];
+    }
+
+    //stores the lowest pressed key in VX, or repeats the instruction until one is pressed
+    void waitForKey(int x) {
+        for (int key = 0; key < 16; key++) {
+            if (keypad.isKeyPressed(key)) {
+                register[x] = key;
+                return;
+            }
+        }
+        programCounter = (programCounter - 2) & (memory.length - 1);
+    }
+
+    //every store into memory has to go through here, so engines can drop stale decoded code
+    void memoryWritten(int address, int length) {
+        engine.invalidate(address, length);
+
+        //a loop can start up to MAX_IDLE_LOOP bytes before its jump
+        int to = Math.min(loopKind.length, address + length + MAX_IDLE_LOOP);
+        Arrays.fill(loopKind, Math.max(0, address), to, (byte) 0);
+    }
+
+    /**
+     * Called by engines after the instruction at {@code address} moved the program counter back to or before itself.
+     * If that closed a loop which only reads registers, timers and keys (FX07/3XNN/1NNN, EX9E/1NNN, FX0A, 00FD, 1NNN to itself)
+     * and the registers are the same as after the previous turn in this frame, every further turn
+     * until the frame ends would repeat it exactly.
+     *
+     * @return how many of the remaining instructions can be skipped, always whole turns of the loop
+     */
+    int skipIdleLoop(int address, int executed, int remaining) {
+        if (!idleSkipping || remaining == 0 || !isIdleLoop(address)) return 0;
+
+        if (idleJump == address && idleAddressPointer == addressPointer && Arrays.equals(idleRegister, register)) {
+            int turn = executed - idleExecuted;
+            int skipped = remaining - remaining % turn;
+            skippedInstructions += skipped;
+            idleJump = -1;
+            return skipped;
+        }
+
+        idleJump = address;
+        idleExecuted = executed;
+        idleAddressPointer = addressPointer;
+        System.arraycopy(register, 0, idleRegister, 0, register.length);
+        return 0;
+    }
+
+    private boolean isIdleLoop(int address) {
+        int kind = loopKind[address];
+        if (kind == 0) {
+            kind = checkLoop(address) ? IDLE_LOOP : BUSY_LOOP;
+            loopKind[address] = (byte) kind;
+        }
+        return kind == IDLE_LOOP;
+    }
+
+    //the loop runs from the jump target to the jump at address, no instruction in it may have effects outside registers
+    private boolean checkLoop(int address) {
+        if (address + 1 >= memory.length) return false;
+
+        int decoded = TableEngine.decode((memory[address] << 8) | memory[address + 1]);
+        int start;
+        if ((decoded & 0xFF) == TableEngine.LD_VX_K || (decoded & 0xFF) == TableEngine.EXIT) start = address;
+        else if ((decoded & 0xFF) == TableEngine.JP) start = decoded >>> 16;
+        else return false;
+
+        if (start > address || address - start > MAX_IDLE_LOOP || ((address - start) & 1) != 0) return false;
+
+        for (int at = start; at < address; at += 2) {
+            switch (TableEngine.decode((memory[at] << 8) | memory[at + 1]) & 0xFF) {
+                case TableEngine.CLS:
+                case TableEngine.RET:
+                case TableEngine.JP:
+                case TableEngine.CALL:
+                case TableEngine.JP_V0:
+                case TableEngine.RND:
+                case TableEngine.DRW:
+                case TableEngine.LD_DT_VX:
+                case TableEngine.LD_ST_VX:
+                case TableEngine.LD_B_VX:
+                case TableEngine.LD_I_VX:
+                case TableEngine.SCD:
+                case TableEngine.SCU:
+                case TableEngine.SCR:
+                case TableEngine.SCL:
+                case TableEngine.EXIT:
+                case TableEngine.LOW:
+                case TableEngine.HIGH:
+                case TableEngine.SAVE_VX_VY:
+                case TableEngine.PLANE:
+                case TableEngine.AUDIO:
+                case TableEngine.PITCH_VX:
+                case TableEngine.LD_R_VX:
+                    return false;
+            }
         }
+        return true;
     }
 
-    public void loadROM(String selectedFilePath) {
+    public void loadROM(byte[] romAsBytes) {
+        if (romAsBytes.length > platform.getMaxRomSize())
+            throw new IllegalArgumentException("ROM is " + romAsBytes.length + " bytes, " + platform
+                    + " has room for " + platform.getMaxRomSize());
         initialize();
 
         //loading ROM into memory at 0x200 and onwards
-
-        byte[] romAsBytes = Gdx.files.internal(selectedFilePath).readBytes();
         for (int i = 0; i < romAsBytes.length; i++) {
             //& 0xFF because we want unsigned byte for easier debugging
             memory[i + 0x200] = romAsBytes[i] & 0xFF;
         }
+        memoryWritten(0, memory.length);
+
+        analysis = ProgramAnalysis.of(romAsBytes);
+        checkLoops();
+        engine.prepare(this, analysis);
+    }
+
+    //what static analysis found in the loaded ROM, null before the first one
+    public ProgramAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    //classifies the backward jumps found by the analysis now, instead of the first time each one is taken
+    private void checkLoops() {
+        for (ProgramAnalysis.Loop loop : analysis.getLoops()) {
+            int address = loop.branch;
+            if ((TableEngine.decode((memory[address] << 8) | memory[address + 1]) & 0xFF) == TableEngine.JP)
+                loopKind[address] = checkLoop(address) ? IDLE_LOOP : BUSY_LOOP;
+        }
     }
 
     private void initialize() {
@@ -328,18 +659,27 @@ public class Processor {
         Arrays.fill(memory, 0x200, memory.length, 0);
         Arrays.fill(register, 0);
 
-        if (stack == null)
-            stack = new LinkedList<Integer>();
-        else
-            stack.clear();
+        Arrays.fill(stack, 0);
+        stackPointer = 0;
+
+        //clear display, back to low resolution
+        display.reset();
 
-        //clear display;
-        emu.getRenderer().clearDisplay();
+        Arrays.fill(flags, 0);
+        Arrays.fill(audioPattern, 0);
+        pitch = DEFAULT_PITCH;
 
         //reset program counter, index register, stack pointer, timers
         programCounter = 0x200;
         addressPointer = 0;
         delayTimer = 0;
         soundTimer = 0;
+        updateSound();
+    }
+
+    //in 0x000-0x1FF was an interpreter, so we can store font data here
+    private void loadFonts() {
+        System.arraycopy(fontset, 0, memory, 0, fontset.length);
+        System.arraycopy(bigFontset, 0, memory, BIG_FONT_ADDRESS, bigFontset.length);
     }
 }
@@ -0,0 +1,220 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Table engine that also counts what the program does: executions per instruction kind,
+ * hits per address, instructions per frame, timer expiries, FX07 polling and DXYN collisions.
+ * A separate engine so the other engines don't pay anything for it, swap it in to profile a ROM.
+ * It never skips idle loops, every instruction is counted.
+ * <p>
+ * Counters can be read through the getters or dumped with {@link #toJson()},
+ * or with {@link #toFoldedStacks()} in the folded format flame graph tools read, one
+ * {@code KIND;address count} line per executed address.
+ */
+public class ProfilingEngine implements ExecutionEngine {
+
+    private final long[] kindCounts = new long[TableEngine.KIND_COUNT];
+    //kind of the last instruction seen at every address, for the folded output
+    private int[] addressKinds = new int[0x1000];
+    private long[] addressHits = new long[0x1000];
+
+    private long frames;
+    private long instructions;
+    private int minInstructionsPerFrame = Integer.MAX_VALUE;
+    private int maxInstructionsPerFrame;
+
+    //timer values when the last frame ended, the ticks in between are seen at the start of the next one
+    private int lastDelayTimer;
+    private int lastSoundTimer;
+    private long delayTimerExpiries;
+    private long soundTimerExpiries;
+
+    private long delayTimerReads;
+    //FX07 reads that found the timer still running, high counts mean the ROM spins waiting for it
+    private long delayTimerReadsRunning;
+
+    private long draws;
+    private long collisions;
+
+    @Override
+    public int execute(Processor cpu, int cycles) {
+        if (lastDelayTimer > 0 && cpu.delayTimer == 0) delayTimerExpiries++;
+        if (lastSoundTimer > 0 && cpu.soundTimer == 0) soundTimerExpiries++;
+
+        int[] memory = cpu.memory;
+        //XO-CHIP programs can run anywhere in 64 KB
+        if (addressHits.length < memory.length) {
+            addressKinds = Arrays.copyOf(addressKinds, memory.length);
+            addressHits = Arrays.copyOf(addressHits, memory.length);
+        }
+        for (int i = 0; i < cycles; i++) {
+            int pc = cpu.programCounter;
+            int decoded = TableEngine.DECODED[(memory[pc] << 8) | memory[(pc + 1) & (memory.length - 1)]];
+            int kind = decoded & 0xFF;
+
+            kindCounts[kind]++;
+            addressHits[pc]++;
+            addressKinds[pc] = kind;
+            if (kind == TableEngine.LD_VX_DT) {
+                delayTimerReads++;
+                if (cpu.delayTimer != 0) delayTimerReadsRunning++;
+            }
+
+            cpu.programCounter = (pc + 2) & (memory.length - 1);
+            TableEngine.dispatch(cpu, decoded);
+
+            if (kind == TableEngine.DRW) {
+                draws++;
+                collisions += cpu.register[0xF];
+            }
+        }
+
+        frames++;
+        instructions += cycles;
+        minInstructionsPerFrame = Math.min(minInstructionsPerFrame, cycles);
+        maxInstructionsPerFrame = Math.max(maxInstructionsPerFrame, cycles);
+        //the timers tick right after this returns
+        lastDelayTimer = cpu.delayTimer;
+        lastSoundTimer = cpu.soundTimer;
+        return cycles;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {
+        //nothing is cached
+    }
+
+    @Override
+    public void prepare(Processor cpu, ProgramAnalysis analysis) {
+        //nothing to translate
+    }
+
+    public void reset() {
+        for (int i = 0; i < kindCounts.length; i++) {
+            kindCounts[i] = 0;
+        }
+        for (int i = 0; i < addressHits.length; i++) {
+            addressHits[i] = 0;
+        }
+        frames = 0;
+        instructions = 0;
+        minInstructionsPerFrame = Integer.MAX_VALUE;
+        maxInstructionsPerFrame = 0;
+        delayTimerExpiries = 0;
+        soundTimerExpiries = 0;
+        delayTimerReads = 0;
+        delayTimerReadsRunning = 0;
+        draws = 0;
+        collisions = 0;
+    }
+
+    //kind is one of the TableEngine constants
+    public long getKindCount(int kind) {
+        return kindCounts[kind];
+    }
+
+    public long getAddressHits(int address) {
+        return addressHits[address];
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public int getMinInstructionsPerFrame() {
+        return frames == 0 ? 0 : minInstructionsPerFrame;
+    }
+
+    public int getMaxInstructionsPerFrame() {
+        return maxInstructionsPerFrame;
+    }
+
+    public long getDelayTimerExpiries() {
+        return delayTimerExpiries;
+    }
+
+    public long getSoundTimerExpiries() {
+        return soundTimerExpiries;
+    }
+
+    public long getDelayTimerReads() {
+        return delayTimerReads;
+    }
+
+    public long getDelayTimerReadsRunning() {
+        return delayTimerReadsRunning;
+    }
+
+    public long getDraws() {
+        return draws;
+    }
+
+    public long getCollisions() {
+        return collisions;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"frames\": ").append(frames).append(",\n");
+        json.append("  \"instructions\": ").append(instructions).append(",\n");
+        json.append("  \"instructionsPerFrame\": {\"min\": ").append(getMinInstructionsPerFrame())
+                .append(", \"max\": ").append(maxInstructionsPerFrame)
+                .append(", \"mean\": ").append(format(ratio(instructions, frames))).append("},\n");
+
+        json.append("  \"kinds\": {");
+        boolean first = true;
+        for (int kind = 0; kind < kindCounts.length; kind++) {
+            if (kindCounts[kind] == 0) continue;
+            json.append(first ? "" : ",").append("\n    \"").append(TableEngine.nameOf(kind)).append("\": ").append(kindCounts[kind]);
+            first = false;
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"addresses\": {");
+        first = true;
+        for (int address = 0; address < addressHits.length; address++) {
+            if (addressHits[address] == 0) continue;
+            json.append(first ? "" : ",").append("\n    \"").append(String.format(Locale.US, "0x%03X", address))
+                    .append("\": ").append(addressHits[address]);
+            first = false;
+        }
+        json.append("\n  },\n");
+
+        json.append("  \"timers\": {\"delayExpiries\": ").append(delayTimerExpiries)
+                .append(", \"soundExpiries\": ").append(soundTimerExpiries)
+                .append(", \"delayReads\": ").append(delayTimerReads)
+                .append(", \"delayReadsRunning\": ").append(delayTimerReadsRunning)
+                .append(", \"delayReadsPerFrame\": ").append(format(ratio(delayTimerReads, frames))).append("},\n");
+        json.append("  \"draws\": {\"count\": ").append(draws)
+                .append(", \"collisions\": ").append(collisions)
+                .append(", \"collisionRate\": ").append(format(ratio(collisions, draws))).append("}\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    public String toFoldedStacks() {
+        StringBuilder folded = new StringBuilder();
+        for (int address = 0; address < addressHits.length; address++) {
+            if (addressHits[address] == 0) continue;
+            folded.append(TableEngine.nameOf(addressKinds[address])).append(';')
+                    .append(String.format(Locale.US, "0x%03X", address)).append(' ')
+                    .append(addressHits[address]).append('\n');
+        }
+        return folded.toString();
+    }
+
+    private static double ratio(long count, long total) {
+        return total == 0 ? 0 : (double) count / total;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.US, "%.4f", value);
+    }
+}
@@ -0,0 +1,617 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Static analysis of a ROM: which bytes are code reachable from 0x200, which are sprites and which other data,
+ * and the control-flow graph of the code with its basic blocks, subroutines and loops.
+ * <p>
+ * Code is found by following fall-through, jump, call and skip edges over the whole ROM, XO-CHIP's 64 KB included,
+ * so code only reachable through BNNN or written at run time isn't seen. Bytes a DXYN draws from an address
+ * loaded into I earlier in the same block are sprites, every other byte that isn't code is data.
+ * Loops are the backward edges of a depth-first walk of every routine. All passes are linear in the ROM size
+ * and work on flat arrays, a 64 KB image takes milliseconds.
+ * <p>
+ * Results are immutable and cached by ROM contents, {@link #of(byte[])} on a ROM seen before costs a hash and a compare.
+ */
+public final class ProgramAnalysis {
+
+    //what a byte of the ROM is
+    public static final byte DATA = 0;
+    //first byte of an instruction
+    public static final byte CODE = 1;
+    //rest of an instruction
+    public static final byte OPERAND = 2;
+    public static final byte SPRITE = 3;
+
+    private static final int CACHE_SIZE = 16;
+
+    //least recently used first
+    private static final Map<Long, ProgramAnalysis> cache = new LinkedHashMap<Long, ProgramAnalysis>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ProgramAnalysis> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Straight-line code entered only at its start. Calls end a block, their callee is kept apart
+     * from the successors, which stay within the routine.
+     */
+    public static final class Block {
+        public final int start;
+        //address of the first byte after the block
+        public final int end;
+        public final int lastInstruction;
+        //start addresses of the blocks control can continue at
+        public final int[] successors;
+        //CALL target, or -1
+        public final int callee;
+
+        Block(int start, int end, int lastInstruction, int[] successors, int callee) {
+            this.start = start;
+            this.end = end;
+            this.lastInstruction = lastInstruction;
+            this.successors = successors;
+            this.callee = callee;
+        }
+    }
+
+    public static final class Subroutine {
+        public final int entry;
+        //start addresses of the blocks reachable from the entry without following calls, ascending,
+        //blocks shared with the main program or a subroutine at a lower address are only listed there
+        public final int[] blocks;
+
+        Subroutine(int entry, int[] blocks) {
+            this.entry = entry;
+            this.blocks = blocks;
+        }
+    }
+
+    //a backward edge: the branch at the end of the latch block goes back to the header
+    public static final class Loop {
+        public final int header;
+        public final int latch;
+        public final int branch;
+
+        Loop(int header, int latch, int branch) {
+            this.header = header;
+            this.latch = latch;
+            this.branch = branch;
+        }
+    }
+
+    private final byte[] rom;
+    //address of the first byte after the ROM
+    private final int end;
+    //per address from 0x200 on
+    private final byte[] types;
+    //of every block, ascending
+    private final int[] blockStarts;
+    private final List<Block> blocks;
+    private final List<Subroutine> subroutines;
+    private final List<Loop> loops;
+    private int codeBytes;
+    private int spriteBytes;
+
+    private ProgramAnalysis(byte[] rom) {
+        this.rom = rom.clone();
+        end = 0x200 + rom.length;
+        types = new byte[end];
+
+        boolean[] leader = new boolean[end];
+        boolean[] entry = new boolean[end];
+        discover(leader, entry);
+
+        List<Block> found = new ArrayList<Block>();
+        for (int address = 0x200; address < end; address++) {
+            if (leader[address]) found.add(buildBlock(address, leader));
+        }
+        blocks = Collections.unmodifiableList(found);
+        blockStarts = new int[found.size()];
+        for (int i = 0; i < blockStarts.length; i++) {
+            blockStarts[i] = found.get(i).start;
+        }
+
+        subroutines = Collections.unmodifiableList(findSubroutines(entry));
+        loops = Collections.unmodifiableList(findLoops());
+
+        for (byte type : types) {
+            if (type == CODE || type == OPERAND) codeBytes++;
+            else if (type == SPRITE) spriteBytes++;
+        }
+    }
+
+    //cached by contents, safe to call from any thread
+    public static ProgramAnalysis of(byte[] rom) {
+        Long hash = RomLibrary.hash(rom);
+        synchronized (cache) {
+            ProgramAnalysis cached = cache.get(hash);
+            if (cached != null && Arrays.equals(cached.rom, rom))
+                return cached;
+        }
+
+        ProgramAnalysis analysis = analyze(rom);
+        synchronized (cache) {
+            cache.put(hash, analysis);
+        }
+        return analysis;
+    }
+
+    //always analyzes again, bypassing the cache
+    public static ProgramAnalysis analyze(byte[] rom) {
+        return new ProgramAnalysis(rom);
+    }
+
+    private boolean isCode(int address) {
+        return address >= 0x200 && address + 1 < end;
+    }
+
+    private int opcodeAt(int address) {
+        return ((rom[address - 0x200] & 0xFF) << 8) | (rom[address + 1 - 0x200] & 0xFF);
+    }
+
+    //F000 NNNN is four bytes long
+    private int lengthAt(int address) {
+        return opcodeAt(address) == 0xF000 ? 4 : 2;
+    }
+
+    //marks every reachable instruction, the block leaders and the call targets
+    private void discover(boolean[] leader, boolean[] entry) {
+        boolean[] queued = new boolean[end];
+        int[] work = new int[end];
+        int pending = 0;
+
+        if (isCode(0x200)) {
+            leader[0x200] = true;
+            queued[0x200] = true;
+            work[pending++] = 0x200;
+        }
+
+        int[] targets = new int[2];
+        while (pending > 0) {
+            int address = work[--pending];
+
+            //follow the straight line until it leaves or runs into code seen before
+            while (true) {
+                if (!isCode(address)) break;
+                if (types[address] == CODE) {
+                    //reached from two sides now
+                    leader[address] = true;
+                    break;
+                }
+
+                int opcode = opcodeAt(address);
+                int kind = TableEngine.decode(opcode) & 0xFF;
+                int next = address + lengthAt(address);
+                types[address] = CODE;
+                for (int at = address + 1; at < Math.min(next, end); at++) {
+                    if (types[at] != CODE) types[at] = OPERAND;
+                }
+
+                int count = 0;
+                boolean falls = false;
+                switch (kind) {
+                    case TableEngine.JP:
+                        targets[count++] = opcode & 0xFFF;
+                        break;
+                    case TableEngine.CALL:
+                        targets[count++] = opcode & 0xFFF;
+                        targets[count++] = next;
+                        if (isCode(opcode & 0xFFF)) entry[opcode & 0xFFF] = true;
+                        break;
+                    case TableEngine.SE_VX_NN:
+                    case TableEngine.SNE_VX_NN:
+                    case TableEngine.SE_VX_VY:
+                    case TableEngine.SNE_VX_VY:
+                    case TableEngine.SKP:
+                    case TableEngine.SKNP:
+                        targets[count++] = next;
+                        if (isCode(next)) targets[count++] = next + lengthAt(next);
+                        break;
+                    case TableEngine.RET:
+                    case TableEngine.JP_V0:
+                    case TableEngine.EXIT:
+                        break;
+                    default:
+                        falls = true;
+                }
+
+                for (int i = 0; i < count; i++) {
+                    int target = targets[i];
+                    if (isCode(target)) {
+                        leader[target] = true;
+                        if (!queued[target]) {
+                            queued[target] = true;
+                            work[pending++] = target;
+                        }
+                    }
+                }
+                if (!falls) break;
+                address = next;
+            }
+        }
+    }
+
+    private Block buildBlock(int start, boolean[] leader) {
+        int address = start;
+        //where I points, as far as this block tells, -1 if unknown
+        int index = -1;
+        int opcode;
+        int kind;
+        int next;
+
+        while (true) {
+            opcode = opcodeAt(address);
+            kind = TableEngine.decode(opcode) & 0xFF;
+            next = address + lengthAt(address);
+
+            switch (kind) {
+                case TableEngine.LD_I:
+                    index = opcode & 0xFFF;
+                    break;
+                case TableEngine.LD_I_LONG:
+                    index = next <= end ? opcodeAt(address + 2) : -1;
+                    break;
+                case TableEngine.ADD_I_VX:
+                case TableEngine.LD_F_VX:
+                case TableEngine.LD_HF_VX:
+                case TableEngine.LD_I_VX:
+                case TableEngine.LD_VX_I:
+                    index = -1;
+                    break;
+                case TableEngine.DRW:
+                    if (index >= 0) markSprite(index, (opcode & 0xF) == 0 ? 32 : opcode & 0xF);
+                    break;
+            }
+
+            if (isBranch(kind) || !isCode(next) || leader[next]) break;
+            address = next;
+        }
+
+        int[] successors;
+        int callee = -1;
+        switch (kind) {
+            case TableEngine.JP:
+                successors = successors(opcode & 0xFFF);
+                break;
+            case TableEngine.CALL:
+                if (isCode(opcode & 0xFFF)) callee = opcode & 0xFFF;
+                successors = successors(next);
+                break;
+            case TableEngine.SE_VX_NN:
+            case TableEngine.SNE_VX_NN:
+            case TableEngine.SE_VX_VY:
+            case TableEngine.SNE_VX_VY:
+            case TableEngine.SKP:
+            case TableEngine.SKNP:
+                successors = isCode(next) ? successors(next, next + lengthAt(next)) : new int[0];
+                break;
+            case TableEngine.RET:
+            case TableEngine.JP_V0:
+            case TableEngine.EXIT:
+                successors = new int[0];
+                break;
+            default:
+                successors = successors(next);
+        }
+        return new Block(start, Math.min(next, end), address, successors, callee);
+    }
+
+    private static boolean isBranch(int kind) {
+        switch (kind) {
+            case TableEngine.JP:
+            case TableEngine.CALL:
+            case TableEngine.SE_VX_NN:
+            case TableEngine.SNE_VX_NN:
+            case TableEngine.SE_VX_VY:
+            case TableEngine.SNE_VX_VY:
+            case TableEngine.SKP:
+            case TableEngine.SKNP:
+            case TableEngine.RET:
+            case TableEngine.JP_V0:
+            case TableEngine.EXIT:
+                return true;
+        }
+        return false;
+    }
+
+    //only the ones inside the ROM, everything else isn't analyzed
+    private int[] successors(int... targets) {
+        int count = 0;
+        for (int target : targets) {
+            if (isCode(target)) count++;
+        }
+        int[] inside = new int[count];
+        count = 0;
+        for (int target : targets) {
+            if (isCode(target)) inside[count++] = target;
+        }
+        return inside;
+    }
+
+    private void markSprite(int from, int length) {
+        for (int address = Math.max(0x200, from); address < Math.min(end, from + length); address++) {
+            if (types[address] == DATA) types[address] = SPRITE;
+        }
+    }
+
+    private int indexOf(int start) {
+        return Arrays.binarySearch(blockStarts, start);
+    }
+
+    //every block goes to the first routine reaching it, main program first, so shared tails are listed once
+    private List<Subroutine> findSubroutines(boolean[] entry) {
+        int[] entries = new int[blockStarts.length];
+        int count = 0;
+        for (int address = 0x200; address < end; address++) {
+            if (entry[address]) entries[count++] = address;
+        }
+        entries = Arrays.copyOf(entries, count);
+
+        //routine index per block, 0 for the main program, subroutine i + 1, -1 for none yet
+        int[] owner = new int[blockStarts.length];
+        Arrays.fill(owner, -1);
+        //entries belong to their own subroutine even when the code before them falls through
+        for (int i = 0; i < entries.length; i++) {
+            owner[indexOf(entries[i])] = i + 1;
+        }
+
+        int[] work = new int[blockStarts.length];
+        int[] sizes = new int[entries.length + 1];
+        for (int routine = 0; routine <= entries.length; routine++) {
+            int first = indexOf(routine == 0 ? 0x200 : entries[routine - 1]);
+            if (first < 0 || (routine == 0 && owner[first] != -1)) continue;
+            owner[first] = routine;
+
+            int pending = 0;
+            work[pending++] = first;
+            while (pending > 0) {
+                int block = work[--pending];
+                sizes[routine]++;
+                for (int successor : blocks.get(block).successors) {
+                    int index = indexOf(successor);
+                    if (owner[index] == -1) {
+                        owner[index] = routine;
+                        work[pending++] = index;
+                    }
+                }
+            }
+        }
+
+        int[][] members = new int[entries.length][];
+        for (int i = 0; i < entries.length; i++) {
+            members[i] = new int[sizes[i + 1]];
+        }
+        int[] filled = new int[entries.length];
+        //ascending since the blocks are
+        for (int block = 0; block < owner.length; block++) {
+            int routine = owner[block];
+            if (routine > 0) members[routine - 1][filled[routine - 1]++] = blockStarts[block];
+        }
+
+        List<Subroutine> found = new ArrayList<Subroutine>(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            found.add(new Subroutine(entries[i], members[i]));
+        }
+        return found;
+    }
+
+    private List<Loop> findLoops() {
+        List<Loop> found = new ArrayList<Loop>();
+        //0 not visited yet, 1 on the walk's stack, 2 done
+        byte[] state = new byte[blockStarts.length];
+        int[] stack = new int[blockStarts.length];
+        //next successor to look at for every block on the stack
+        int[] nextSuccessor = new int[blockStarts.length];
+
+        //the main program first, then every subroutine on its own since calls aren't followed
+        int roots = subroutines.size() + 1;
+        for (int root = 0; root < roots; root++) {
+            int start = root == 0 ? 0x200 : subroutines.get(root - 1).entry;
+            int first = indexOf(start);
+            if (first < 0 || state[first] != 0) continue;
+
+            int depth = 0;
+            stack[depth++] = first;
+            state[first] = 1;
+            nextSuccessor[first] = 0;
+            while (depth > 0) {
+                int current = stack[depth - 1];
+                Block block = blocks.get(current);
+                if (nextSuccessor[current] == block.successors.length) {
+                    state[current] = 2;
+                    depth--;
+                    continue;
+                }
+
+                int index = indexOf(block.successors[nextSuccessor[current]++]);
+                if (state[index] == 0) {
+                    state[index] = 1;
+                    nextSuccessor[index] = 0;
+                    stack[depth++] = index;
+                } else if (state[index] == 1) {
+                    found.add(new Loop(blockStarts[index], block.start, block.lastInstruction));
+                }
+            }
+        }
+        return found;
+    }
+
+    public int getRomSize() {
+        return rom.length;
+    }
+
+    //unsigned, 0 outside the ROM
+    public int getByte(int address) {
+        return address >= 0x200 && address < end ? rom[address - 0x200] & 0xFF : 0;
+    }
+
+    //DATA, CODE, OPERAND or SPRITE, DATA outside the ROM
+    public byte getType(int address) {
+        return address >= 0x200 && address < end ? types[address] : DATA;
+    }
+
+    //every block, by start address
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    //the block starting at address, or null
+    public Block getBlockAt(int address) {
+        int index = indexOf(address);
+        return index < 0 ? null : blocks.get(index);
+    }
+
+    //by entry address
+    public List<Subroutine> getSubroutines() {
+        return subroutines;
+    }
+
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    //instructions and their operands, F000 NNNN counts with its address word
+    public int getCodeBytes() {
+        return codeBytes;
+    }
+
+    public int getSpriteBytes() {
+        return spriteBytes;
+    }
+
+    public int getDataBytes() {
+        return rom.length - codeBytes - spriteBytes;
+    }
+
+    /**
+     * The instruction at address in Cowgod's notation with SUPER-CHIP and XO-CHIP extensions,
+     * e.g. {@code LD V3, #1F} or {@code DRW V0, V1, 5}.
+     */
+    public String disassemble(int address) {
+        int opcode = opcodeAt(address);
+        int x = (opcode >>> 8) & 0xF;
+        int y = (opcode >>> 4) & 0xF;
+        int nnn = opcode & 0xFFF;
+        int nn = opcode & 0xFF;
+        int n = opcode & 0xF;
+
+        switch (TableEngine.decode(opcode) & 0xFF) {
+            case TableEngine.NOP:
+                return format("SYS #%03X", nnn);
+            case TableEngine.CLS:
+                return "CLS";
+            case TableEngine.RET:
+                return "RET";
+            case TableEngine.JP:
+                return format("JP #%03X", nnn);
+            case TableEngine.CALL:
+                return format("CALL #%03X", nnn);
+            case TableEngine.SE_VX_NN:
+                return format("SE V%X, #%02X", x, nn);
+            case TableEngine.SNE_VX_NN:
+                return format("SNE V%X, #%02X", x, nn);
+            case TableEngine.SE_VX_VY:
+                return format("SE V%X, V%X", x, y);
+            case TableEngine.LD_VX_NN:
+                return format("LD V%X, #%02X", x, nn);
+            case TableEngine.ADD_VX_NN:
+                return format("ADD V%X, #%02X", x, nn);
+            case TableEngine.LD_VX_VY:
+                return format("LD V%X, V%X", x, y);
+            case TableEngine.OR_VX_VY:
+                return format("OR V%X, V%X", x, y);
+            case TableEngine.AND_VX_VY:
+                return format("AND V%X, V%X", x, y);
+            case TableEngine.XOR_VX_VY:
+                return format("XOR V%X, V%X", x, y);
+            case TableEngine.ADD_VX_VY:
+                return format("ADD V%X, V%X", x, y);
+            case TableEngine.SUB_VX_VY:
+                return format("SUB V%X, V%X", x, y);
+            case TableEngine.SHR_VX:
+                return format("SHR V%X, V%X", x, y);
+            case TableEngine.SUBN_VX_VY:
+                return format("SUBN V%X, V%X", x, y);
+            case TableEngine.SHL_VX:
+                return format("SHL V%X, V%X", x, y);
+            case TableEngine.SNE_VX_VY:
+                return format("SNE V%X, V%X", x, y);
+            case TableEngine.LD_I:
+                return format("LD I, #%03X", nnn);
+            case TableEngine.JP_V0:
+                return format("JP V0, #%03X", nnn);
+            case TableEngine.RND:
+                return format("RND V%X, #%02X", x, nn);
+            case TableEngine.DRW:
+                return format("DRW V%X, V%X, %d", x, y, n);
+            case TableEngine.SKP:
+                return format("SKP V%X", x);
+            case TableEngine.SKNP:
+                return format("SKNP V%X", x);
+            case TableEngine.LD_VX_DT:
+                return format("LD V%X, DT", x);
+            case TableEngine.LD_VX_K:
+                return format("LD V%X, K", x);
+            case TableEngine.LD_DT_VX:
+                return format("LD DT, V%X", x);
+            case TableEngine.LD_ST_VX:
+                return format("LD ST, V%X", x);
+            case TableEngine.ADD_I_VX:
+                return format("ADD I, V%X", x);
+            case TableEngine.LD_F_VX:
+                return format("LD F, V%X", x);
+            case TableEngine.LD_B_VX:
+                return format("LD B, V%X", x);
+            case TableEngine.LD_I_VX:
+                return format("LD [I], V%X", x);
+            case TableEngine.LD_VX_I:
+                return format("LD V%X, [I]", x);
+            case TableEngine.SCD:
+                return format("SCD %d", n);
+            case TableEngine.SCR:
+                return "SCR";
+            case TableEngine.SCL:
+                return "SCL";
+            case TableEngine.EXIT:
+                return "EXIT";
+            case TableEngine.LOW:
+                return "LOW";
+            case TableEngine.HIGH:
+                return "HIGH";
+            case TableEngine.LD_HF_VX:
+                return format("LD HF, V%X", x);
+            case TableEngine.LD_R_VX:
+                return format("LD R, V%X", x);
+            case TableEngine.LD_VX_R:
+                return format("LD V%X, R", x);
+            case TableEngine.SCU:
+                return format("SCU %d", n);
+            case TableEngine.SAVE_VX_VY:
+                return format("SAVE V%X - V%X", x, y);
+            case TableEngine.LOAD_VX_VY:
+                return format("LOAD V%X - V%X", x, y);
+            case TableEngine.LD_I_LONG:
+                return address + 3 < end ? format("LD I, #%04X", opcodeAt(address + 2)) : "LD I, ?";
+            case TableEngine.PLANE:
+                return format("PLANE %d", x);
+            case TableEngine.AUDIO:
+                return "AUDIO";
+            case TableEngine.PITCH_VX:
+                return format("PITCH V%X", x);
+        }
+        return format("#%04X", opcode);
+    }
+
+    private static String format(String format, Object... args) {
+        return String.format(Locale.US, format, args);
+    }
+}
@@ -0,0 +1,20 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Random numbers for CXNN. The whole generator state has to fit into a long, so save states,
+ * rewind and run-ahead carry it along and a run can be repeated exactly from its seed.
+ */
+public interface RandomSource {
+
+    //0-255
+    int nextByte();
+
+    void setSeed(long seed);
+
+    long getState();
+
+    /**
+     * @throws IllegalArgumentException if the generator can't be in that state
+     */
+    void setState(long state);
+}
@@ -1,107 +1,124 @@
 package com.kierek.chip8emu.emu;
 
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
-import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.utils.viewport.FitViewport;
-import com.kierek.chip8emu.Chip8Emu;
-
-import java.util.Arrays;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Draws the machine's {@link FrameBuffer} with libGDX.
+ * <p>
+ * The display is kept in a texture with one texel per pixel and drawn as a single scaled quad.
+ * The texture is always 128x64, in low resolution only its top left 64x32 corner is drawn,
+ * so switching modes needs no new texture. Pixels get one color per combination of lit XO-CHIP planes.
+ * Every frame is copied into a private frame buffer mirroring the texture, which marks the rows that differ;
+ * only those are rewritten and only the span between the first and last of them is uploaded.
+ * The frame can come straight from the machine or from the emulation thread's {@link TripleBuffer}.
+ */
 public class Renderer {
 
     private static final String TAG = "Renderer";
 
-    private OrthographicCamera cam;
-    private ShapeRenderer shapeRenderer;
-    private FitViewport viewport;
+    //the screen is 64x32 world units in both resolutions
+    private static final int WIDTH = FrameBuffer.WIDTH;
+    private static final int HEIGHT = FrameBuffer.HEIGHT;
 
-    //screen resolution was 64x32 pixels, they where either on or off
-    private static final int WIDTH = 64;
-    private static final int HEIGHT = 32;
+    private static final int TEXTURE_WIDTH = FrameBuffer.HIRES_WIDTH;
+    private static final int TEXTURE_HEIGHT = FrameBuffer.HIRES_HEIGHT;
 
-    private boolean[][] pixels = new boolean[WIDTH][HEIGHT];
+    private OrthographicCamera cam;
+    private FitViewport viewport;
+    private SpriteBatch batch;
 
-    private Chip8Emu emu;
+    private Pixmap pixmap;
+    private Texture texture;
 
-    public Renderer(Chip8Emu emu) {
-        this.emu = emu;
+    //what the texture shows right now
+    private final FrameBuffer shown = new FrameBuffer();
 
+    public Renderer() {
         cam = new OrthographicCamera();
         cam.setToOrtho(true, WIDTH, HEIGHT);
         viewport = new FitViewport(WIDTH, HEIGHT, cam);
 
-        shapeRenderer = new ShapeRenderer();
-        shapeRenderer.setColor(Color.BLACK);
-        shapeRenderer.setProjectionMatrix(cam.combined);
+        batch = new SpriteBatch(1);
+        batch.setProjectionMatrix(cam.combined);
+
+        pixmap = new Pixmap(TEXTURE_WIDTH, TEXTURE_HEIGHT, Pixmap.Format.RGBA8888);
+        pixmap.setBlending(Pixmap.Blending.None);
+        pixmap.setColor(0, 0, 0, 1);
+        pixmap.fill();
 
+        texture = new Texture(pixmap);
+        texture.setFilter(Texture.TextureFilter.Nearest, Texture.TextureFilter.Nearest);
     }
 
-    public void render() {
+    public void render(FrameBuffer frame) {
+        shown.set(frame);
+        if (shown.getDirtyRows() != 0) {
+            upload(shown.getDirtyRows());
+            shown.clearDirtyRows();
+        }
+
         Gdx.gl.glClearColor(0, 0, 0, 1);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
-        shapeRenderer.begin(ShapeRenderer.ShapeType.Filled);
+        batch.begin();
+        //the camera is y-down, the texture y-up
+        batch.draw(texture, 0, 0, WIDTH, HEIGHT, 0, 0, shown.getWidth(), shown.getHeight(), false, true);
+        batch.end();
+    }
 
-        for (int x = 0; x < pixels.length; x++) {
-            for (int y = 0; y < pixels[x].length; y++) {
-                if (pixels[x][y]) {
-                    shapeRenderer.setColor(Color.WHITE);
-                } else {
-                    shapeRenderer.setColor(Color.BLACK);
-                }
-                shapeRenderer.rect(x, y, 1, 1);
+    private void upload(long dirtyRows) {
+        int height = shown.getHeight();
+        int first = Long.numberOfTrailingZeros(dirtyRows);
+        int last = Math.min(height - 1, 63 - Long.numberOfLeadingZeros(dirtyRows));
+        if (first > last) return;
+
+        int words = shown.isHighResolution() ? FrameBuffer.WORDS : 1;
+        for (int y = first; y <= last; y++) {
+            if (((dirtyRows >>> y) & 1) == 0) continue;
+            for (int word = 0; word < words; word++) {
+                writeWord(y, word, shown.getWord(0, y, word), shown.getWord(1, y, word));
             }
         }
 
-        shapeRenderer.end();
+        ByteBuffer pixels = pixmap.getPixels();
+        pixels.position(first * TEXTURE_WIDTH * 4);
+        texture.bind();
+        Gdx.gl.glTexSubImage2D(GL20.GL_TEXTURE_2D, 0, 0, first, TEXTURE_WIDTH, last - first + 1,
+                pixmap.getGLFormat(), pixmap.getGLType(), pixels);
+        pixels.position(0);
     }
 
-    public void clearDisplay() {
-        for (int x = 0; x < WIDTH; x++) {
-            for (int y = 0; y < HEIGHT; y++) {
-                pixels[x][y] = false;
-            }
+    //64 pixels, plane 0 gives bit 0 of the color index and plane 1 bit 1
+    private void writeWord(int y, int word, long plane0, long plane1) {
+        ByteBuffer pixels = pixmap.getPixels();
+        int offset = (y * TEXTURE_WIDTH + word * 64) * 4;
+        for (int x = 0; x < 64; x++, offset += 4) {
+            pixels.putInt(offset, FrameBuffer.COLORS[(int) (plane0 >>> 63) | (int) (plane1 >>> 63) << 1]);
+            plane0 <<= 1;
+            plane1 <<= 1;
         }
+    }
 
+    public void clearScreen() {
         Gdx.gl.glClearColor(0, 0, 0, 1);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
     }
 
-    boolean drawSprite(int x, int y, int[] sprite) {
-        boolean wasTurnedOff = false;
-
-        //Sprite is 8pixels wide and up to 15 lines high.
-        //Every line is 1 byte long.
-        //We need to transform every hex to binary, and then put them into pixels[],
-
-        for (int row = 0; row < sprite.length; row++) {
-            int rowInBits = sprite[row];
-
-            //I have no idea why, but sprites seem to be reversed on the X axis
-            //so I draw them from right to left
-            int tempX = 0;
-            for (int col = 7; col >= 0; col--, tempX++) {
-
-                //I have no idea why it crashes without modulo
-                //didn't chip8 have no display wrapping?
-                int destX = (tempX + x) % WIDTH;
-                int destY = (y + row) % HEIGHT;
-
-                boolean previousVal = pixels[destX][destY];
-                pixels[destX][destY] ^= ((rowInBits >>> col) & 1) == 1;
-
-                if (previousVal && !pixels[destX][destY]) {
-                    wasTurnedOff = true;
-                }
-            }
-        }
-        return wasTurnedOff;
-    }
-
     public void resize(int width, int height) {
         viewport.update(width, height);
     }
+
+    public void dispose() {
+        batch.dispose();
+        texture.dispose();
+        pixmap.dispose();
+    }
 }
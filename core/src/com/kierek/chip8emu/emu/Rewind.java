@@ -0,0 +1,272 @@
+package com.kierek.chip8emu.emu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Recent history of a {@link Machine}, one {@link SaveState} per emulated frame, that can be stepped back through.
+ * <p>
+ * Every {@link #KEYFRAME_INTERVAL}th state is a keyframe stored as a delta against the first recorded state,
+ * the others are deltas against their keyframe, so restoring any frame decodes at most two records.
+ * A delta is the XOR of both states with runs of zeros (unchanged bytes) collapsed:
+ * <pre>
+ * varint  unchanged bytes
+ * varint  changed bytes, followed by their XOR with the reference
+ * </pre>
+ * repeated until the state is covered. Records live in one fixed byte ring, the oldest are dropped as it fills,
+ * so the memory used never grows after construction and recording allocates nothing.
+ * Only switching to a platform with a different state size, which means a new program, reallocates and starts over.
+ */
+public class Rewind {
+
+    public static final int DEFAULT_SECONDS = 60;
+    //the bundled games need 40-220 KB for a minute
+    public static final int DEFAULT_BUFFER_BYTES = 384 * 1024;
+
+    //one keyframe a second keeps keyframes a small part of the history
+    public static final int KEYFRAME_INTERVAL = Scheduler.TIMER_HZ;
+
+    private final Machine machine;
+
+    //records, ring indexed by sequence number modulo capacity
+    private final int capacity;
+    private final int[] recordStart;
+    private final int[] recordLength;
+    private final boolean[] keyframe;
+    private long oldest;
+    private long next;
+
+    private final byte[] data;
+    private int writePosition;
+
+    //all sized for the current platform's save states
+    private byte[] base;
+    //decoded state of the keyframe at keyframeSequence, -1 if none is decoded
+    private byte[] keyframeState;
+    private long keyframeSequence = -1;
+
+    private byte[] state;
+    private ByteBuffer stateBuffer;
+    //above the worst case, a changed byte followed by two unchanged ones, over the whole state
+    private byte[] encoded;
+
+    public Rewind(Machine machine) {
+        this(machine, DEFAULT_SECONDS, DEFAULT_BUFFER_BYTES);
+    }
+
+    public Rewind(Machine machine, int seconds, int bufferBytes) {
+        if (seconds <= 0)
+            throw new IllegalArgumentException("seconds has to be positive: " + seconds);
+        if (bufferBytes < SaveState.size(machine) * 4)
+            throw new IllegalArgumentException("buffer too small to hold two records: " + bufferBytes);
+
+        this.machine = machine;
+        capacity = seconds * Scheduler.TIMER_HZ;
+        recordStart = new int[capacity];
+        recordLength = new int[capacity];
+        keyframe = new boolean[capacity];
+        data = new byte[bufferBytes];
+        allocateStates(SaveState.size(machine));
+    }
+
+    //stores the machine's current state as the newest frame
+    public void record() {
+        int size = SaveState.size(machine);
+        if (state.length != size) {
+            if (data.length < size * 4)
+                throw new IllegalStateException("buffer too small to hold two records of " + size + " bytes");
+            allocateStates(size);
+            clear();
+        }
+
+        stateBuffer.clear();
+        SaveState.save(machine, stateBuffer);
+
+        if (next == oldest)
+            System.arraycopy(state, 0, base, 0, state.length);
+
+        boolean isKeyframe = next == oldest || next - keyframeSequence >= KEYFRAME_INTERVAL;
+        int length = encode(state, isKeyframe ? base : keyframeState, encoded);
+        int start = allocate(length);
+
+        //making room dropped the keyframe this delta refers to, store the state as a keyframe instead
+        if (!isKeyframe && keyframeSequence < oldest) {
+            isKeyframe = true;
+            if (next == oldest)
+                System.arraycopy(state, 0, base, 0, state.length);
+            length = encode(state, base, encoded);
+            start = allocate(length);
+        }
+
+        int slot = (int) (next % capacity);
+        System.arraycopy(encoded, 0, data, start, length);
+        recordStart[slot] = start;
+        recordLength[slot] = length;
+        keyframe[slot] = isKeyframe;
+        writePosition = start + length;
+
+        if (isKeyframe) {
+            System.arraycopy(state, 0, keyframeState, 0, state.length);
+            keyframeSequence = next;
+        }
+        next++;
+    }
+
+    /**
+     * Drops the newest frame and puts the machine back into the one before it.
+     *
+     * @return false if there is no earlier frame left
+     */
+    public boolean stepBack() {
+        if (next - oldest < 2)
+            return false;
+
+        next--;
+        long sequence = next - 1;
+        int slot = (int) (sequence % capacity);
+
+        long key = sequence;
+        while (!keyframe[(int) (key % capacity)]) {
+            key--;
+        }
+        if (key != keyframeSequence) {
+            int keySlot = (int) (key % capacity);
+            decode(recordStart[keySlot], recordLength[keySlot], base, keyframeState);
+            keyframeSequence = key;
+        }
+
+        if (key == sequence)
+            System.arraycopy(keyframeState, 0, state, 0, state.length);
+        else
+            decode(recordStart[slot], recordLength[slot], keyframeState, state);
+
+        //new records go right after the one now newest
+        writePosition = recordStart[slot] + recordLength[slot];
+
+        stateBuffer.clear();
+        SaveState.load(machine, stateBuffer);
+        return true;
+    }
+
+    public void clear() {
+        oldest = 0;
+        next = 0;
+        writePosition = 0;
+        keyframeSequence = -1;
+    }
+
+    public int getFrameCount() {
+        return (int) (next - oldest);
+    }
+
+    public int getBytesUsed() {
+        int used = 0;
+        for (long sequence = oldest; sequence < next; sequence++) {
+            used += recordLength[(int) (sequence % capacity)];
+        }
+        return used;
+    }
+
+    private void allocateStates(int size) {
+        base = new byte[size];
+        keyframeState = new byte[size];
+        state = new byte[size];
+        stateBuffer = ByteBuffer.wrap(state);
+        encoded = new byte[size * 2];
+    }
+
+    //finds room for the next record, dropping the oldest ones it would overwrite
+    private int allocate(int length) {
+        if (next - oldest == capacity)
+            drop();
+
+        int start = writePosition;
+        if (start + length > data.length) {
+            //records are never split, the older ones left past writePosition go first
+            while (oldest < next && recordStart[(int) (oldest % capacity)] >= start) {
+                drop();
+            }
+            start = 0;
+        }
+
+        while (oldest < next) {
+            int slot = (int) (oldest % capacity);
+            if (recordStart[slot] >= start + length || recordStart[slot] + recordLength[slot] <= start)
+                break;
+            drop();
+        }
+        return start;
+    }
+
+    private void drop() {
+        oldest++;
+        //a delta without its keyframe can't be decoded
+        while (oldest < next && !keyframe[(int) (oldest % capacity)]) {
+            oldest++;
+        }
+    }
+
+    static int encode(byte[] state, byte[] reference, byte[] out) {
+        int length = state.length;
+        int position = 0;
+        int i = 0;
+
+        while (i < length) {
+            int unchangedFrom = i;
+            while (i < length && state[i] == reference[i]) {
+                i++;
+            }
+            int changedFrom = i;
+            //a single unchanged byte is cheaper to keep inside the run than to start a new pair
+            while (i < length && (state[i] != reference[i] || (i + 1 < length && state[i + 1] != reference[i + 1]))) {
+                i++;
+            }
+
+            position = putVarint(out, position, changedFrom - unchangedFrom);
+            position = putVarint(out, position, i - changedFrom);
+            for (int j = changedFrom; j < i; j++) {
+                out[position++] = (byte) (state[j] ^ reference[j]);
+            }
+        }
+        return position;
+    }
+
+    private void decode(int start, int length, byte[] reference, byte[] out) {
+        System.arraycopy(reference, 0, out, 0, out.length);
+
+        int position = start;
+        int end = start + length;
+        int i = 0;
+        while (position < end) {
+            int unchanged = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                unchanged |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            int changed = 0;
+            shift = 0;
+            do {
+                b = data[position++];
+                changed |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            i += unchanged;
+            for (int j = 0; j < changed; j++) {
+                out[i++] ^= data[position++];
+            }
+        }
+    }
+
+    private static int putVarint(byte[] out, int position, int value) {
+        while (value > 0x7F) {
+            out[position++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        out[position++] = (byte) value;
+        return position;
+    }
+}
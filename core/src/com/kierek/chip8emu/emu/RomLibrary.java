@@ -0,0 +1,321 @@
+package com.kierek.chip8emu.emu;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Every ROM in a directory and what is known about it. The list is kept in an index between runs,
+ * so it is there right away without reading a single ROM, and a rescan in the background only reads
+ * files whose size or modification time changed. ROMs are identified by a hash of their content,
+ * a renamed or copied ROM keeps when it was last played.
+ * <p>
+ * ROM bytes can be preloaded on a background thread, for example for the games shown in a menu,
+ * so starting one doesn't wait for storage. The index, big-endian:
+ * <pre>
+ * int     magic "C8LB"
+ * byte    version
+ * int     number of entries, then for every entry
+ * short   length of the UTF-8 path, then the path
+ * long    size, modification time, content hash
+ * byte    platform
+ * long    last played, milliseconds since the epoch, 0 for never
+ * </pre>
+ */
+public class RomLibrary {
+
+    public static final int MAGIC = 0x43384C42;
+    public static final int VERSION = 1;
+
+    //ROM images kept after preloading, a few menu pages worth
+    private static final int PRELOADED = 32;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long hash;
+        private final Platform platform;
+        private volatile long lastPlayed;
+
+        Entry(String path, long size, long modified, long hash, Platform platform) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.platform = platform;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        //file name without the directory
+        public String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        //64-bit FNV-1a of the ROM image
+        public long getHash() {
+            return hash;
+        }
+
+        public Platform getPlatform() {
+            return platform;
+        }
+
+        //milliseconds since the epoch, 0 if never played
+        public long getLastPlayed() {
+            return lastPlayed;
+        }
+    }
+
+    private final RomSource source;
+    private final String directory;
+
+    //sorted by path, only ever replaced as a whole
+    private volatile List<Entry> entries = Collections.emptyList();
+    private final Object scanLock = new Object();
+
+    //one thread scans while the other preloads, a first scan of a big library doesn't hold up starting a game
+    private final ExecutorService loader = Executors.newFixedThreadPool(2, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "chip8-rom-loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //least recently used first
+    private final Map<String, Future<byte[]>> preloaded = new LinkedHashMap<String, Future<byte[]>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Future<byte[]>> eldest) {
+            return size() > PRELOADED;
+        }
+    };
+
+    public RomLibrary(RomSource source, String directory) {
+        this.source = source;
+        this.directory = directory;
+    }
+
+    //what the last scan or the index found, safe to call from any thread
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Brings the entries up to date with the directory, reading only new or changed files.
+     * Files that can't be read or don't fit into memory on any platform are left out.
+     *
+     * @return number of ROMs read
+     */
+    public int scan() {
+        synchronized (scanLock) {
+            List<Entry> known = entries;
+            Map<String, Entry> byPath = new HashMap<String, Entry>();
+            Map<Long, Entry> byHash = new HashMap<Long, Entry>();
+            for (Entry entry : known) {
+                byPath.put(entry.path, entry);
+                if (entry.lastPlayed != 0 || !byHash.containsKey(entry.hash))
+                    byHash.put(entry.hash, entry);
+            }
+
+            String[] paths = source.list(directory);
+            Arrays.sort(paths);
+            List<Entry> scanned = new ArrayList<Entry>(paths.length);
+            int read = 0;
+            for (String path : paths) {
+                long size = source.length(path);
+                long modified = source.lastModified(path);
+                Entry entry = byPath.get(path);
+                if (entry != null && entry.size == size && entry.modified == modified) {
+                    scanned.add(entry);
+                    continue;
+                }
+
+                byte[] rom;
+                try {
+                    rom = source.read(path);
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                read++;
+                if (rom.length == 0 || rom.length > Platform.XO_CHIP.getMaxRomSize())
+                    continue;
+
+                entry = new Entry(path, size, modified, hash(rom), Platform.detect(path, rom));
+                Entry same = byHash.get(entry.hash);
+                if (same != null)
+                    entry.lastPlayed = same.lastPlayed;
+                scanned.add(entry);
+            }
+
+            //an unchanged library keeps its list, whoever holds it can tell nothing changed
+            if (!scanned.equals(known))
+                entries = Collections.unmodifiableList(scanned);
+            return read;
+        }
+    }
+
+    //scans on a background thread, then runs onDone there, which may be null
+    public Future<?> scanInBackground(final Runnable onDone) {
+        return loader.submit(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+                if (onDone != null)
+                    onDone.run();
+            }
+        });
+    }
+
+    //starts reading the ROM on a background thread, unless it is already read or being read
+    public void preload(final Entry entry) {
+        synchronized (preloaded) {
+            if (preloaded.containsKey(entry.path))
+                return;
+
+            preloaded.put(entry.path, loader.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() {
+                    return source.read(entry.path);
+                }
+            }));
+        }
+    }
+
+    //the ROM image, from a preload if there was one, waiting for it if it isn't done yet
+    public byte[] read(Entry entry) {
+        Future<byte[]> rom;
+        synchronized (preloaded) {
+            rom = preloaded.get(entry.path);
+        }
+        if (rom == null)
+            return source.read(entry.path);
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return rom.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            //a failed preload is retried here, the file may be back by now
+            synchronized (preloaded) {
+                preloaded.remove(entry.path);
+            }
+            return source.read(entry.path);
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setLastPlayed(Entry entry, long time) {
+        entry.lastPlayed = time;
+    }
+
+    public void dispose() {
+        loader.shutdownNow();
+    }
+
+    public byte[] toBytes() {
+        List<Entry> snapshot = entries;
+        int length = 4 + 1 + 4;
+        byte[][] paths = new byte[snapshot.size()][];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = snapshot.get(i).path.getBytes(UTF_8);
+            length += 2 + paths[i].length + 8 * 3 + 1 + 8;
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.putInt(snapshot.size());
+        for (int i = 0; i < paths.length; i++) {
+            Entry entry = snapshot.get(i);
+            out.putShort((short) paths[i].length);
+            out.put(paths[i]);
+            out.putLong(entry.size);
+            out.putLong(entry.modified);
+            out.putLong(entry.hash);
+            out.put((byte) entry.platform.ordinal());
+            out.putLong(entry.lastPlayed);
+        }
+        return out.array();
+    }
+
+    /**
+     * Replaces the entries with the ones from an index written by {@link #toBytes()}.
+     *
+     * @throws IllegalArgumentException if the data isn't an index this version can read
+     */
+    public void load(byte[] index) {
+        ByteBuffer in = ByteBuffer.wrap(index);
+        Platform[] platforms = Platform.values();
+        try {
+            if (in.getInt() != MAGIC)
+                throw new IllegalArgumentException("not a ROM library index");
+            int version = in.get();
+            if (version != VERSION)
+                throw new IllegalArgumentException("unsupported ROM library index version " + version);
+
+            int count = in.getInt();
+            List<Entry> loaded = new ArrayList<Entry>(Math.min(count, in.remaining()));
+            for (int i = 0; i < count; i++) {
+                byte[] path = new byte[in.getShort() & 0xFFFF];
+                in.get(path);
+                long size = in.getLong();
+                long modified = in.getLong();
+                long hash = in.getLong();
+                int platform = in.get();
+                if (platform < 0 || platform >= platforms.length)
+                    throw new IllegalArgumentException("unknown platform " + platform);
+
+                Entry entry = new Entry(new String(path, UTF_8), size, modified, hash, platforms[platform]);
+                entry.lastPlayed = in.getLong();
+                loaded.add(entry);
+            }
+            synchronized (scanLock) {
+                entries = Collections.unmodifiableList(loaded);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("ROM library index is truncated", e);
+        }
+    }
+
+    //64-bit FNV-1a
+    public static long hash(byte[] rom) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : rom) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
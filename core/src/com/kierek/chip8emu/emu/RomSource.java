@@ -0,0 +1,17 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Where ROM images come from.
+ */
+public interface RomSource {
+
+    byte[] read(String path);
+
+    //paths of the files directly in the directory, in the form read takes them
+    String[] list(String directory);
+
+    //size and modification time tell whether a file changed since it was last read, both 0 if not known
+    long length(String path);
+
+    long lastModified(String path);
+}
@@ -0,0 +1,92 @@
+package com.kierek.chip8emu.emu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hides the input lag of games that read the keypad once per loop and draw a frame or two later.
+ * After the machine has run, its state is copied into a hidden machine that runs a few frames further
+ * with the same keys, and the hidden machine's display is what gets shown. The real machine is never rolled back,
+ * so its engine keeps its caches and sound and rewind only ever see real frames.
+ * <p>
+ * pong.rom and breakout.rom show a key press one to two frames after it happens, one frame ahead hides most of it.
+ */
+public class RunAhead {
+
+    public static final int DEFAULT_FRAMES = 1;
+    public static final int MAX_FRAMES = 8;
+
+    private final Machine machine;
+    private final Machine hidden;
+    private int frames;
+
+    //sized for the machine's platform
+    private ByteBuffer state = ByteBuffer.allocate(SaveState.size(Platform.CHIP_8));
+    //frame of the real machine the hidden one last ran ahead of
+    private long aheadOf = -1;
+
+    private long runs;
+    private long totalNanos;
+    private long lastNanos;
+
+    /**
+     * @param hidden machine that does the running ahead, with the same keypad as {@code machine}
+     *               and no sound, ideally with the same kind of engine
+     */
+    public RunAhead(Machine machine, Machine hidden, int frames) {
+        this.machine = machine;
+        this.hidden = hidden;
+        setFrames(frames);
+    }
+
+    //display of the machine as it will look a few frames from now, updated whenever the machine moved on
+    public FrameBuffer getFrameBuffer() {
+        long frame = machine.getScheduler().getFrame();
+        if (frame != aheadOf) {
+            runAhead();
+            aheadOf = frame;
+        }
+        return hidden.getFrameBuffer();
+    }
+
+    private void runAhead() {
+        long start = System.nanoTime();
+
+        int size = SaveState.size(machine);
+        if (state.capacity() != size)
+            state = ByteBuffer.allocate(size);
+
+        state.clear();
+        SaveState.save(machine, state);
+        state.flip();
+        SaveState.load(hidden, state);
+        hidden.runFrames(frames);
+
+        lastNanos = System.nanoTime() - start;
+        totalNanos += lastNanos;
+        runs++;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    public void setFrames(int frames) {
+        if (frames < 1 || frames > MAX_FRAMES)
+            throw new IllegalArgumentException("run-ahead has to be 1-" + MAX_FRAMES + " frames: " + frames);
+        this.frames = frames;
+        aheadOf = -1;
+    }
+
+    //time the last run ahead took: copying the state over and the hidden frames
+    public long getLastNanos() {
+        return lastNanos;
+    }
+
+    public long getAverageNanos() {
+        return runs == 0 ? 0 : totalNanos / runs;
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+}
@@ -0,0 +1,72 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer single-consumer ring of 16-bit PCM samples.
+ * The thread running the machine writes a frame of sound at a time, the audio thread reads it
+ * in device sized blocks. Both sides copy in at most two pieces and publish with one ordered store,
+ * nothing is allocated after construction.
+ */
+public class SampleRing {
+
+    private final short[] samples;
+    private final int mask;
+
+    //next sample to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //next free slot, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    //capacity is rounded up to a power of two
+    public SampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        samples = new short[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return samples.length;
+    }
+
+    //samples written and not read yet, from either thread
+    public int available() {
+        return (int) (tail.get() - head.get());
+    }
+
+    //returns how many samples fit, the rest is dropped
+    public int write(short[] from, int offset, int count) {
+        long t = tail.get();
+        count = Math.min(count, samples.length - (int) (t - head.get()));
+
+        int at = (int) t & mask;
+        int first = Math.min(count, samples.length - at);
+        System.arraycopy(from, offset, samples, at, first);
+        System.arraycopy(from, offset + first, samples, 0, count - first);
+        //publishes the samples copied above
+        tail.lazySet(t + count);
+        return count;
+    }
+
+    //returns how many samples there were, at most count
+    public int read(short[] to, int offset, int count) {
+        long h = head.get();
+        count = Math.min(count, (int) (tail.get() - h));
+
+        int at = (int) h & mask;
+        int first = Math.min(count, samples.length - at);
+        System.arraycopy(samples, at, to, offset, first);
+        System.arraycopy(samples, 0, to, offset + first, count - first);
+        //frees the slots read above
+        head.lazySet(h + count);
+        return count;
+    }
+
+    //consumer side, drops up to count of the oldest samples and returns how many were dropped
+    public int skip(int count) {
+        long h = head.get();
+        count = Math.min(count, (int) (tail.get() - h));
+        head.lazySet(h + count);
+        return count;
+    }
+}
@@ -0,0 +1,238 @@
+package com.kierek.chip8emu.emu;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact versioned binary snapshot of a whole {@link Machine}.
+ * <pre>
+ * int    magic "C8ST"
+ * byte   version
+ * byte   platform
+ * int    memory size, then one byte per memory location
+ * 16     bytes V0-VF
+ * byte   stack pointer, then 16 shorts of stack
+ * short  program counter
+ * short  I
+ * byte   delay timer
+ * byte   sound timer
+ * long   state of the CXNN RandomSource
+ * 16     bytes of SUPER-CHIP user flags
+ * 16     bytes of XO-CHIP audio pattern
+ * byte   audio pitch
+ * long   scheduler frame number, it decides how many cycles the next frame gets
+ * byte   1 in high resolution
+ * byte   selected planes
+ * 256    longs of display, 2 planes of 64 rows of 2 longs
+ * </pre>
+ * Memory is stored as bytes, a quarter of the processor's int[] representation.
+ * The size depends on the platform, see {@link #size(Platform)}.
+ * Saving into and loading from a caller's buffer allocates nothing.
+ */
+public final class SaveState {
+
+    public static final int MAGIC = 0x43385354;
+    //2: CXNN uses xorshift, the generator state of version 1 means nothing to it
+    //3: SUPER-CHIP and XO-CHIP state, memory size depends on the platform
+    public static final int VERSION = 3;
+
+    private static final int DISPLAY_WORDS = FrameBuffer.PLANES * FrameBuffer.HIRES_HEIGHT * FrameBuffer.WORDS;
+
+    private static final Platform[] PLATFORMS = Platform.values();
+
+    private SaveState() {
+    }
+
+    public static int size(Platform platform) {
+        return 4 + 1 + 1
+                + 4 + platform.getMemorySize()
+                + 16
+                + 1 + Processor.STACK_SIZE * 2
+                + 2 + 2
+                + 1 + 1
+                + 8
+                + 16 + 16 + 1
+                + 8
+                + 1 + 1 + DISPLAY_WORDS * 8;
+    }
+
+    public static int size(Machine machine) {
+        return size(machine.getProcessor().getPlatform());
+    }
+
+    public static void save(Machine machine, ByteBuffer out) {
+        Processor cpu = machine.getProcessor();
+
+        out.putInt(MAGIC);
+        out.put((byte) VERSION);
+        out.put((byte) cpu.getPlatform().ordinal());
+
+        int[] memory = cpu.memory;
+        out.putInt(memory.length);
+        for (int i = 0; i < memory.length; i++) {
+            out.put((byte) memory[i]);
+        }
+
+        for (int i = 0; i < 16; i++) {
+            out.put((byte) cpu.register[i]);
+        }
+
+        out.put((byte) cpu.stackPointer);
+        for (int i = 0; i < Processor.STACK_SIZE; i++) {
+            out.putShort((short) cpu.stack[i]);
+        }
+
+        out.putShort((short) cpu.programCounter);
+        out.putShort((short) cpu.addressPointer);
+        out.put((byte) cpu.delayTimer);
+        out.put((byte) cpu.soundTimer);
+        out.putLong(cpu.random.getState());
+        for (int i = 0; i < 16; i++) {
+            out.put((byte) cpu.flags[i]);
+        }
+        for (int i = 0; i < 16; i++) {
+            out.put((byte) cpu.audioPattern[i]);
+        }
+        out.put((byte) cpu.pitch);
+
+        out.putLong(machine.getScheduler().getFrame());
+
+        FrameBuffer frameBuffer = machine.getFrameBuffer();
+        out.put((byte) (frameBuffer.isHighResolution() ? 1 : 0));
+        out.put((byte) frameBuffer.getSelectedPlanes());
+        for (int plane = 0; plane < FrameBuffer.PLANES; plane++) {
+            for (int y = 0; y < FrameBuffer.HIRES_HEIGHT; y++) {
+                for (int word = 0; word < FrameBuffer.WORDS; word++) {
+                    out.putLong(frameBuffer.getWord(plane, y, word));
+                }
+            }
+        }
+    }
+
+    public static byte[] save(Machine machine) {
+        byte[] state = new byte[size(machine)];
+        save(machine, ByteBuffer.wrap(state));
+        return state;
+    }
+
+    /**
+     * Restores a state written by {@link #save(Machine, ByteBuffer)}. The whole record is checked first,
+     * a state that can't be read leaves the machine and the buffer as they were.
+     *
+     * @throws IllegalArgumentException if the buffer doesn't hold a state this version can read
+     */
+    public static void load(Machine machine, ByteBuffer in) {
+        Processor cpu = machine.getProcessor();
+        Platform platform = check(in);
+
+        //the only field the machine can still refuse, before anything else changes
+        cpu.random.setState(in.getLong(in.position() + randomOffset(platform)));
+
+        in.position(in.position() + 6);
+        cpu.setPlatform(platform);
+        int[] memory = cpu.memory;
+        int size = in.getInt();
+
+        //engines caching decoded code only hear about the ranges that actually change
+        int changedFrom = -1;
+        for (int i = 0; i < size; i++) {
+            int value = in.get() & 0xFF;
+            if (memory[i] != value) {
+                memory[i] = value;
+                if (changedFrom == -1) changedFrom = i;
+            } else if (changedFrom != -1) {
+                cpu.memoryWritten(changedFrom, i - changedFrom);
+                changedFrom = -1;
+            }
+        }
+        if (changedFrom != -1)
+            cpu.memoryWritten(changedFrom, size - changedFrom);
+
+        for (int i = 0; i < 16; i++) {
+            cpu.register[i] = in.get() & 0xFF;
+        }
+
+        cpu.stackPointer = in.get();
+        for (int i = 0; i < Processor.STACK_SIZE; i++) {
+            cpu.stack[i] = in.getShort() & 0xFFFF;
+        }
+
+        cpu.programCounter = in.getShort() & 0xFFFF;
+        cpu.addressPointer = in.getShort() & 0xFFFF;
+        cpu.delayTimer = in.get() & 0xFF;
+        cpu.soundTimer = in.get() & 0xFF;
+        cpu.updateSound();
+        //set already
+        in.getLong();
+        for (int i = 0; i < 16; i++) {
+            cpu.flags[i] = in.get() & 0xFF;
+        }
+        for (int i = 0; i < 16; i++) {
+            cpu.audioPattern[i] = in.get() & 0xFF;
+        }
+        cpu.pitch = in.get() & 0xFF;
+
+        machine.getScheduler().setFrame(in.getLong());
+
+        FrameBuffer frameBuffer = machine.getFrameBuffer();
+        boolean highResolution = in.get() != 0;
+        frameBuffer.restoreMode(highResolution, in.get());
+        for (int plane = 0; plane < FrameBuffer.PLANES; plane++) {
+            for (int y = 0; y < FrameBuffer.HIRES_HEIGHT; y++) {
+                for (int word = 0; word < FrameBuffer.WORDS; word++) {
+                    frameBuffer.setWord(plane, y, word, in.getLong());
+                }
+            }
+        }
+    }
+
+    //reads nothing, returns the platform of the state starting at the buffer's position
+    private static Platform check(ByteBuffer in) {
+        int at = in.position();
+        if (in.remaining() < 4 + 1 + 1 + 4)
+            throw new IllegalArgumentException("save state is truncated");
+        if (in.getInt(at) != MAGIC)
+            throw new IllegalArgumentException("not a save state");
+        int version = in.get(at + 4);
+        if (version != VERSION)
+            throw new IllegalArgumentException("unsupported save state version " + version);
+        int ordinal = in.get(at + 5);
+        if (ordinal < 0 || ordinal >= PLATFORMS.length)
+            throw new IllegalArgumentException("unknown platform " + ordinal);
+        Platform platform = PLATFORMS[ordinal];
+
+        int size = in.getInt(at + 6);
+        if (size != platform.getMemorySize())
+            throw new IllegalArgumentException("save state is for " + size + " bytes of memory, " + platform
+                    + " has " + platform.getMemorySize());
+        if (in.remaining() < size(platform))
+            throw new IllegalArgumentException("save state is truncated");
+
+        int stackPointer = in.get(at + 4 + 1 + 1 + 4 + size + 16);
+        if (stackPointer < 0 || stackPointer > Processor.STACK_SIZE)
+            throw new IllegalArgumentException("stack pointer out of range: " + stackPointer);
+        //every address the program counter can take has to be in memory
+        for (int i = 0; i < stackPointer; i++) {
+            int address = in.getShort(at + 4 + 1 + 1 + 4 + size + 16 + 1 + i * 2) & 0xFFFF;
+            if (address >= size)
+                throw new IllegalArgumentException("return address out of range: 0x" + Integer.toHexString(address));
+        }
+        int programCounter = in.getShort(at + 4 + 1 + 1 + 4 + size + 16 + 1 + Processor.STACK_SIZE * 2) & 0xFFFF;
+        if (programCounter >= size)
+            throw new IllegalArgumentException("program counter out of range: 0x" + Integer.toHexString(programCounter));
+        return platform;
+    }
+
+    //from the start of the record
+    private static int randomOffset(Platform platform) {
+        return 4 + 1 + 1
+                + 4 + platform.getMemorySize()
+                + 16
+                + 1 + Processor.STACK_SIZE * 2
+                + 2 + 2
+                + 1 + 1;
+    }
+
+    public static void load(Machine machine, byte[] state) {
+        load(machine, ByteBuffer.wrap(state));
+    }
+}
@@ -0,0 +1,159 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Maps host time onto emulated frames. Every frame is exactly 1/60 s of machine time:
+ * a fixed number of instructions derived from the CPU clock followed by one timer tick,
+ * so game speed no longer depends on the host frame rate.
+ */
+public class Scheduler {
+
+    public static final int TIMER_HZ = 60;
+    public static final int DEFAULT_CLOCK_HZ = 500;
+
+    //frames allowed to run in one update() before the stall policy kicks in
+    public static final int DEFAULT_MAX_FRAMES_PER_UPDATE = 4;
+
+    //catching up never goes further back than this
+    private static final double MAX_BACKLOG_SECONDS = 1.0;
+
+    //longest host time spent in one update() in unlimited mode
+    private static final double MAX_UNLIMITED_SLICE_SECONDS = 1.0 / 30;
+
+    public enum StallPolicy {
+        //run the missed frames over the next updates, emulated time stays in sync with host time
+        CATCH_UP,
+        //forget the missed frames, the game slows down instead of speeding up afterwards
+        SKIP
+    }
+
+    private final Processor cpu;
+    //called after every emulated frame, may be null
+    private Runnable frameListener;
+
+    private int clockHz = DEFAULT_CLOCK_HZ;
+    private boolean unlimited;
+    private StallPolicy stallPolicy = StallPolicy.SKIP;
+    private int maxFramesPerUpdate = DEFAULT_MAX_FRAMES_PER_UPDATE;
+
+    //host time not yet turned into frames
+    private double pendingSeconds;
+    //volatile so telemetry can read them from the render thread
+    private volatile long frame;
+    private volatile long instructions;
+    private volatile long droppedFrames;
+
+    public Scheduler(Processor cpu) {
+        this.cpu = cpu;
+    }
+
+    /**
+     * Advances the machine by {@code deltaSeconds} of host time.
+     * In unlimited mode frames run back to back for about that long instead.
+     *
+     * @return number of frames emulated
+     */
+    public int update(float deltaSeconds) {
+        if (unlimited) {
+            return runFor(Math.min(deltaSeconds, MAX_UNLIMITED_SLICE_SECONDS));
+        }
+
+        pendingSeconds += deltaSeconds;
+        int due = (int) (pendingSeconds * TIMER_HZ);
+
+        if (due > maxFramesPerUpdate) {
+            if (stallPolicy == StallPolicy.SKIP) {
+                droppedFrames += due - maxFramesPerUpdate;
+                pendingSeconds -= (double) (due - maxFramesPerUpdate) / TIMER_HZ;
+            } else if (pendingSeconds > MAX_BACKLOG_SECONDS) {
+                int kept = (int) (MAX_BACKLOG_SECONDS * TIMER_HZ);
+                droppedFrames += due - kept;
+                pendingSeconds -= (double) (due - kept) / TIMER_HZ;
+            }
+            due = maxFramesPerUpdate;
+        }
+
+        runFrames(due);
+        pendingSeconds -= (double) due / TIMER_HZ;
+        return due;
+    }
+
+    //runs frames without looking at host time, used by unlimited mode and headless runs
+    public void runFrames(int count) {
+        for (int i = 0; i < count; i++) {
+            int cycles = cyclesForFrame(frame);
+            cpu.runFrame(cycles);
+            instructions += cycles;
+            frame++;
+            if (frameListener != null)
+                frameListener.run();
+        }
+    }
+
+    private int runFor(double seconds) {
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        int frames = 0;
+        do {
+            runFrames(1);
+            frames++;
+        } while (System.nanoTime() < deadline);
+        return frames;
+    }
+
+    //spreads clockHz instructions evenly over 60 frames, so rates like 500 Hz stay exact over a second
+    int cyclesForFrame(long frame) {
+        return (int) ((frame + 1) * clockHz / TIMER_HZ - frame * clockHz / TIMER_HZ);
+    }
+
+    public int getClockHz() {
+        return clockHz;
+    }
+
+    public void setClockHz(int clockHz) {
+        if (clockHz <= 0)
+            throw new IllegalArgumentException("clock has to be positive: " + clockHz);
+        this.clockHz = clockHz;
+    }
+
+    public boolean isUnlimited() {
+        return unlimited;
+    }
+
+    //runs frames as fast as the host allows, the clock still decides how many instructions fit in one frame
+    public void setUnlimited(boolean unlimited) {
+        this.unlimited = unlimited;
+        pendingSeconds = 0;
+    }
+
+    public StallPolicy getStallPolicy() {
+        return stallPolicy;
+    }
+
+    public void setStallPolicy(StallPolicy stallPolicy) {
+        this.stallPolicy = stallPolicy;
+    }
+
+    public void setMaxFramesPerUpdate(int maxFramesPerUpdate) {
+        this.maxFramesPerUpdate = maxFramesPerUpdate;
+    }
+
+    public void setFrameListener(Runnable frameListener) {
+        this.frameListener = frameListener;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    void setFrame(long frame) {
+        this.frame = frame;
+    }
+
+    //instructions run since the machine was created
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+}
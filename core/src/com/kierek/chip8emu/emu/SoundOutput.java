@@ -0,0 +1,27 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Buzzer driven by the sound timer.
+ */
+public interface SoundOutput {
+
+    SoundOutput NONE = new SoundOutput() {
+        @Override
+        public void setPlaying(boolean playing) {
+        }
+
+        @Override
+        public void endFrame(int[] pattern, int pitch) {
+        }
+    };
+
+    //called whenever the sound timer starts or stops the buzzer
+    void setPlaying(boolean playing);
+
+    /**
+     * Called after every emulated 1/60 s frame, on the thread running the machine, so sound can be
+     * produced at the emulated rate. The pattern holds the 16 bytes of the XO-CHIP audio pattern,
+     * all zero if the program never loaded one, and is only valid during the call.
+     */
+    void endFrame(int[] pattern, int pitch);
+}
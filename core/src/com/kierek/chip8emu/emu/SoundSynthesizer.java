@@ -0,0 +1,93 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Turns the sound timer into PCM, one emulated frame at a time, so sound follows emulated time
+ * and not the host's frame rate. Every frame writes {@code sampleRate / 60} samples, silence included,
+ * which keeps the ring filled at a steady rate whatever the game does.
+ * <p>
+ * The classic buzzer is a square wave. XO-CHIP programs that loaded an audio pattern get the pattern instead:
+ * its 128 bits played in a loop, one bit per sample at {@code 4000 * 2^((pitch - 64) / 48)} Hz.
+ * Runs on the thread running the machine and allocates nothing.
+ */
+public class SoundSynthesizer implements SoundOutput {
+
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+
+    private static final double BUZZER_HZ = 440;
+    private static final short AMPLITUDE = 6000;
+    private static final int PATTERN_BITS = 128;
+
+    private final SampleRing ring;
+    private final int sampleRate;
+    private final short[] frame;
+    //carried over between frames, rates like 22050 Hz aren't a multiple of 60
+    private int remainder;
+
+    private boolean playing;
+    //position in the square wave or the pattern, in periods or bits, kept across frames so nothing clicks
+    private double phase;
+
+    //samples that didn't fit because the audio side fell behind, for example while running unlimited
+    private volatile long droppedSamples;
+
+    public SoundSynthesizer(SampleRing ring, int sampleRate) {
+        this.ring = ring;
+        this.sampleRate = sampleRate;
+        frame = new short[sampleRate / Scheduler.TIMER_HZ + 1];
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public long getDroppedSamples() {
+        return droppedSamples;
+    }
+
+    @Override
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+    }
+
+    @Override
+    public void endFrame(int[] pattern, int pitch) {
+        remainder += sampleRate;
+        int count = remainder / Scheduler.TIMER_HZ;
+        remainder -= count * Scheduler.TIMER_HZ;
+
+        if (!playing) {
+            for (int i = 0; i < count; i++) {
+                frame[i] = 0;
+            }
+            phase = 0;
+        } else if (isEmpty(pattern)) {
+            double step = BUZZER_HZ / sampleRate;
+            //coming from a pattern the phase counts bits
+            phase -= Math.floor(phase);
+            for (int i = 0; i < count; i++) {
+                frame[i] = phase < 0.5 ? AMPLITUDE : -AMPLITUDE;
+                phase += step;
+                if (phase >= 1) phase -= 1;
+            }
+        } else {
+            double step = 4000 * Math.pow(2, (pitch - 64) / 48.0) / sampleRate;
+            for (int i = 0; i < count; i++) {
+                int bit = (int) phase;
+                frame[i] = (pattern[bit >>> 3] & (0x80 >>> (bit & 7))) != 0 ? AMPLITUDE : -AMPLITUDE;
+                phase += step;
+                if (phase >= PATTERN_BITS) phase -= PATTERN_BITS;
+            }
+        }
+
+        int written = ring.write(frame, 0, count);
+        if (written < count)
+            droppedSamples += count - written;
+    }
+
+    private static boolean isEmpty(int[] pattern) {
+        for (int b : pattern) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+}
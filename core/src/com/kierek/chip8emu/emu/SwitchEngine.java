@@ -0,0 +1,27 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Reference engine, runs every opcode through the cascaded switches in {@link Processor#decodeOpCode(int)}.
+ * Slow, but easy to read and useful to check other engines against,
+ * it never skips idle loops.
+ */
+public class SwitchEngine implements ExecutionEngine {
+
+    @Override
+    public int execute(Processor cpu, int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            cpu.decodeOpCode(cpu.getNextOpCode());
+        }
+        return cycles;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {
+        //nothing is cached
+    }
+
+    @Override
+    public void prepare(Processor cpu, ProgramAnalysis analysis) {
+        //nothing to translate
+    }
+}
@@ -0,0 +1,463 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * Engine that looks every opcode up in a precomputed 64K table instead of masking it
+ * against several switches. Each entry holds the instruction kind and its operands, already decoded:
+ * <pre>
+ * bits  0-7  kind
+ * bits  8-11 X
+ * bits 12-15 Y
+ * bits 16-27 NNN (NN and N are its low 8 and 4 bits)
+ * </pre>
+ * so executing an instruction is one array load and one dense switch.
+ * The kinds and the layout are public so code generators can work from the same decoding.
+ */
+public class TableEngine implements ExecutionEngine {
+
+    public static final int NOP = 0;
+    public static final int CLS = 1;
+    public static final int RET = 2;
+    public static final int JP = 3;
+    public static final int CALL = 4;
+    public static final int SE_VX_NN = 5;
+    public static final int SNE_VX_NN = 6;
+    public static final int SE_VX_VY = 7;
+    public static final int LD_VX_NN = 8;
+    public static final int ADD_VX_NN = 9;
+    public static final int LD_VX_VY = 10;
+    public static final int OR_VX_VY = 11;
+    public static final int AND_VX_VY = 12;
+    public static final int XOR_VX_VY = 13;
+    public static final int ADD_VX_VY = 14;
+    public static final int SUB_VX_VY = 15;
+    public static final int SHR_VX = 16;
+    public static final int SUBN_VX_VY = 17;
+    public static final int SHL_VX = 18;
+    public static final int SNE_VX_VY = 19;
+    public static final int LD_I = 20;
+    public static final int JP_V0 = 21;
+    public static final int RND = 22;
+    public static final int DRW = 23;
+    public static final int SKP = 24;
+    public static final int SKNP = 25;
+    public static final int LD_VX_DT = 26;
+    public static final int LD_VX_K = 27;
+    public static final int LD_DT_VX = 28;
+    public static final int LD_ST_VX = 29;
+    public static final int ADD_I_VX = 30;
+    public static final int LD_F_VX = 31;
+    public static final int LD_B_VX = 32;
+    public static final int LD_I_VX = 33;
+    public static final int LD_VX_I = 34;
+    //SUPER-CHIP
+    public static final int SCD = 35;
+    public static final int SCR = 36;
+    public static final int SCL = 37;
+    public static final int EXIT = 38;
+    public static final int LOW = 39;
+    public static final int HIGH = 40;
+    public static final int LD_HF_VX = 41;
+    public static final int LD_R_VX = 42;
+    public static final int LD_VX_R = 43;
+    //XO-CHIP
+    public static final int SCU = 44;
+    public static final int SAVE_VX_VY = 45;
+    public static final int LOAD_VX_VY = 46;
+    public static final int LD_I_LONG = 47;
+    public static final int PLANE = 48;
+    public static final int AUDIO = 49;
+    public static final int PITCH_VX = 50;
+
+    private static final String[] NAMES = {
+            "NOP", "CLS", "RET", "JP", "CALL", "SE_VX_NN", "SNE_VX_NN", "SE_VX_VY", "LD_VX_NN", "ADD_VX_NN",
+            "LD_VX_VY", "OR_VX_VY", "AND_VX_VY", "XOR_VX_VY", "ADD_VX_VY", "SUB_VX_VY", "SHR_VX", "SUBN_VX_VY", "SHL_VX", "SNE_VX_VY",
+            "LD_I", "JP_V0", "RND", "DRW", "SKP", "SKNP", "LD_VX_DT", "LD_VX_K", "LD_DT_VX", "LD_ST_VX",
+            "ADD_I_VX", "LD_F_VX", "LD_B_VX", "LD_I_VX", "LD_VX_I", "SCD", "SCR", "SCL", "EXIT", "LOW",
+            "HIGH", "LD_HF_VX", "LD_R_VX", "LD_VX_R", "SCU", "SAVE_VX_VY", "LOAD_VX_VY", "LD_I_LONG", "PLANE", "AUDIO",
+            "PITCH_VX"
+    };
+
+    public static final int KIND_COUNT = NAMES.length;
+
+    //shared between all processors, it is never written after class initialization
+    static final int[] DECODED = new int[0x10000];
+
+    static {
+        for (int opcode = 0; opcode < DECODED.length; opcode++) {
+            int operands = (opcode & 0xF00) | ((opcode & 0xF0) << 8) | ((opcode & 0xFFF) << 16);
+            DECODED[opcode] = kindOf(opcode) | operands;
+        }
+    }
+
+    @Override
+    public int execute(Processor cpu, int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            int address = cpu.programCounter;
+            dispatch(cpu, DECODED[cpu.getNextOpCode()]);
+
+            if (cpu.programCounter <= address)
+                i += cpu.skipIdleLoop(address, i + 1, cycles - i - 1);
+        }
+        return cycles;
+    }
+
+    @Override
+    public void invalidate(int address, int length) {
+        //nothing is cached
+    }
+
+    @Override
+    public void prepare(Processor cpu, ProgramAnalysis analysis) {
+        //nothing to translate
+    }
+
+    public static String nameOf(int kind) {
+        return NAMES[kind];
+    }
+
+    public static int decode(int opcode) {
+        return DECODED[opcode & 0xFFFF];
+    }
+
+    //true for instructions that can leave straight-line code: jumps, calls, returns, skips, key waits,
+    //00FD, F000 NNNN whose second word isn't code, and stores, since a store may overwrite the code that follows it
+    public static boolean endsBlock(int kind) {
+        switch (kind) {
+            case RET:
+            case JP:
+            case CALL:
+            case SE_VX_NN:
+            case SNE_VX_NN:
+            case SE_VX_VY:
+            case SNE_VX_VY:
+            case JP_V0:
+            case SKP:
+            case SKNP:
+            case LD_VX_K:
+            case LD_B_VX:
+            case LD_I_VX:
+            case EXIT:
+            case SAVE_VX_VY:
+            case LD_I_LONG:
+                return true;
+        }
+        return false;
+    }
+
+    static int kindOf(int opcode) {
+        switch (opcode) {
+            case 0x00E0:
+                return CLS;
+            case 0x00EE:
+                return RET;
+            case 0x00FB:
+                return SCR;
+            case 0x00FC:
+                return SCL;
+            case 0x00FD:
+                return EXIT;
+            case 0x00FE:
+                return LOW;
+            case 0x00FF:
+                return HIGH;
+            case 0xF000:
+                return LD_I_LONG;
+            case 0xF002:
+                return AUDIO;
+        }
+        if ((opcode & 0xFFF0) == 0x00C0) return SCD;
+        if ((opcode & 0xFFF0) == 0x00D0) return SCU;
+
+        switch (opcode & 0xF000) {
+            case 0x1000:
+                return JP;
+            case 0x2000:
+                return CALL;
+            case 0x3000:
+                return SE_VX_NN;
+            case 0x4000:
+                return SNE_VX_NN;
+            case 0x5000:
+                switch (opcode & 0xF) {
+                    case 0x0:
+                        return SE_VX_VY;
+                    case 0x2:
+                        return SAVE_VX_VY;
+                    case 0x3:
+                        return LOAD_VX_VY;
+                }
+                return NOP;
+            case 0x6000:
+                return LD_VX_NN;
+            case 0x7000:
+                return ADD_VX_NN;
+            case 0x8000:
+                switch (opcode & 0xF) {
+                    case 0x0:
+                        return LD_VX_VY;
+                    case 0x1:
+                        return OR_VX_VY;
+                    case 0x2:
+                        return AND_VX_VY;
+                    case 0x3:
+                        return XOR_VX_VY;
+                    case 0x4:
+                        return ADD_VX_VY;
+                    case 0x5:
+                        return SUB_VX_VY;
+                    case 0x6:
+                        return SHR_VX;
+                    case 0x7:
+                        return SUBN_VX_VY;
+                    case 0xE:
+                        return SHL_VX;
+                }
+                return NOP;
+            case 0x9000:
+                return (opcode & 0xF) == 0 ? SNE_VX_VY : NOP;
+            case 0xA000:
+                return LD_I;
+            case 0xB000:
+                return JP_V0;
+            case 0xC000:
+                return RND;
+            case 0xD000:
+                return DRW;
+        }
+
+        switch (opcode & 0xF0FF) {
+            case 0xE09E:
+                return SKP;
+            case 0xE0A1:
+                return SKNP;
+            case 0xF007:
+                return LD_VX_DT;
+            case 0xF00A:
+                return LD_VX_K;
+            case 0xF015:
+                return LD_DT_VX;
+            case 0xF018:
+                return LD_ST_VX;
+            case 0xF01E:
+                return ADD_I_VX;
+            case 0xF029:
+                return LD_F_VX;
+            case 0xF033:
+                return LD_B_VX;
+            case 0xF055:
+                return LD_I_VX;
+            case 0xF065:
+                return LD_VX_I;
+            case 0xF001:
+                return PLANE;
+            case 0xF030:
+                return LD_HF_VX;
+            case 0xF03A:
+                return PITCH_VX;
+            case 0xF075:
+                return LD_R_VX;
+            case 0xF085:
+                return LD_VX_R;
+        }
+
+        return NOP;
+    }
+
+    //semantics mirror Processor.decodeOpCode one to one, including the order in which VF is written
+    static void dispatch(Processor cpu, int decoded) {
+        int[] register = cpu.register;
+        int x = (decoded >>> 8) & 0xF;
+        int y = (decoded >>> 12) & 0xF;
+        int nnn = decoded >>> 16;
+
+        switch (decoded & 0xFF) {
+            case NOP:
+                return;
+            case CLS:
+                cpu.display.clear();
+                return;
+            case RET:
+                cpu.programCounter = cpu.pop();
+                return;
+            case JP:
+                cpu.programCounter = nnn;
+                return;
+            case CALL:
+                cpu.push(cpu.programCounter);
+                cpu.programCounter = nnn;
+                return;
+            case SE_VX_NN:
+                if (register[x] == (nnn & 0xFF))
+                    cpu.skipNext();
+                return;
+            case SNE_VX_NN:
+                if (register[x] != (nnn & 0xFF))
+                    cpu.skipNext();
+                return;
+            case SE_VX_VY:
+                if (register[x] == register[y])
+                    cpu.skipNext();
+                return;
+            case LD_VX_NN:
+                register[x] = nnn & 0xFF;
+                return;
+            case ADD_VX_NN:
+                register[x] = (register[x] + nnn) & 0xFF;
+                return;
+            case LD_VX_VY:
+                register[x] = register[y];
+                return;
+            case OR_VX_VY:
+                //same as the reference engine
+                register[x] = register[y];
+                return;
+            case AND_VX_VY:
+                register[x] &= register[y];
+                return;
+            case XOR_VX_VY:
+                register[x] ^= register[y];
+                return;
+            case ADD_VX_VY: {
+                int sum = register[x] + register[y];
+                register[0xF] = sum > 0xFF ? 1 : 0;
+                register[x] = sum & 0xFF;
+                return;
+            }
+            case SUB_VX_VY:
+                register[0xF] = 1;
+                if (register[y] > register[x]) register[0xF] = 0;
+                register[x] = (register[x] - register[y]) & 0xFF;
+                return;
+            case SHR_VX:
+                register[0xF] = register[x] & 1;
+                register[x] = register[x] >>> 1;
+                return;
+            case SUBN_VX_VY:
+                //same as the reference engine
+                register[0xF] = 1;
+                if (register[x] > register[y]) register[0xF] = 0;
+                register[y] = register[x];
+                register[x] &= 0xFF;
+                return;
+            case SHL_VX:
+                register[0xF] = register[x] >>> 7;
+                register[x] = (register[x] << 1) & 0xFF;
+                return;
+            case SNE_VX_VY:
+                if (register[x] != register[y])
+                    cpu.skipNext();
+                return;
+            case LD_I:
+                cpu.addressPointer = nnn;
+                return;
+            case JP_V0:
+                cpu.programCounter = (nnn + register[0]) & (cpu.memory.length - 1);
+                return;
+            case RND:
+                register[x] = cpu.random.nextByte() & nnn & 0xFF;
+                return;
+            case DRW: {
+                register[0xF] = 0;
+                int height = nnn & 0xF;
+                register[0xF] |= cpu.display.drawSprite(register[x], register[y], cpu.memory, cpu.addressPointer, height) ? 1 : 0;
+                return;
+            }
+            case SKP:
+                if (cpu.keypad.isKeyPressed(register[x]))
+                    cpu.skipNext();
+                return;
+            case SKNP:
+                if (!cpu.keypad.isKeyPressed(register[x]))
+                    cpu.skipNext();
+                return;
+            case LD_VX_DT:
+                register[x] = cpu.delayTimer & 0xFF;
+                return;
+            case LD_VX_K:
+                cpu.waitForKey(x);
+                return;
+            case LD_DT_VX:
+                cpu.delayTimer = register[x];
+                return;
+            case LD_ST_VX:
+                cpu.soundTimer = register[x];
+                return;
+            case ADD_I_VX:
+                cpu.addressPointer = (cpu.addressPointer + register[x]) & (cpu.memory.length - 1);
+                return;
+            case LD_F_VX:
+                cpu.addressPointer = register[x] * 5;
+                return;
+            case LD_B_VX: {
+                int value = register[x];
+                int[] memory = cpu.memory;
+                int address = cpu.addressPointer;
+                memory[address] = value / 100;
+                memory[address + 1] = (value / 10) % 10;
+                memory[address + 2] = value % 10;
+                cpu.memoryWritten(address, 3);
+                return;
+            }
+            case LD_I_VX:
+                System.arraycopy(register, 0, cpu.memory, cpu.addressPointer, x + 1);
+                cpu.memoryWritten(cpu.addressPointer, x + 1);
+                return;
+            case LD_VX_I:
+                System.arraycopy(cpu.memory, cpu.addressPointer, register, 0, x + 1);
+                return;
+            case SCD:
+                cpu.display.scrollDown(nnn & 0xF);
+                return;
+            case SCR:
+                cpu.display.scrollRight();
+                return;
+            case SCL:
+                cpu.display.scrollLeft();
+                return;
+            case EXIT:
+                cpu.programCounter = (cpu.programCounter - 2) & (cpu.memory.length - 1);
+                return;
+            case LOW:
+                cpu.display.setHighResolution(false);
+                return;
+            case HIGH:
+                cpu.display.setHighResolution(true);
+                return;
+            case LD_HF_VX:
+                cpu.addressPointer = Processor.BIG_FONT_ADDRESS + register[x] * 10;
+                return;
+            case LD_R_VX:
+                System.arraycopy(register, 0, cpu.flags, 0, x + 1);
+                return;
+            case LD_VX_R:
+                System.arraycopy(cpu.flags, 0, register, 0, x + 1);
+                return;
+            case SCU:
+                cpu.display.scrollUp(nnn & 0xF);
+                return;
+            case SAVE_VX_VY:
+                cpu.storeRange(x, y);
+                return;
+            case LOAD_VX_VY:
+                cpu.loadRange(x, y);
+                return;
+            case LD_I_LONG: {
+                //the address is the next word, the program counter already points at it
+                int[] memory = cpu.memory;
+                int pc = cpu.programCounter;
+                int mask = memory.length - 1;
+                cpu.addressPointer = (memory[pc] << 8) | memory[(pc + 1) & mask];
+                cpu.programCounter = (pc + 2) & mask;
+                return;
+            }
+            case PLANE:
+                cpu.display.selectPlanes(x);
+                return;
+            case AUDIO:
+                cpu.loadAudioPattern();
+                return;
+            case PITCH_VX:
+                cpu.pitch = register[x];
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.Locale;
+
+/**
+ * Pacing and speed of a running machine, summed up once per {@link #WINDOW_NANOS}:
+ * emulated instructions and timer ticks per second against their targets, host frame time percentiles,
+ * time spent emulating and rendering per host frame, dropped frames and host frames that showed nothing new,
+ * and with sound, its latency and the times the audio ran dry.
+ * <p>
+ * Fed from the render loop, the emulation side only through the scheduler's counters and
+ * {@link #addEmulationNanos(long)}, so it works the same with and without the emulation thread.
+ * Recording allocates nothing, only building the text of a summary does.
+ */
+public class Telemetry {
+
+    public static final long WINDOW_NANOS = 1000000000L;
+
+    //frame times are bucketed by 0.1 ms up to 100 ms, slower frames all land in the last bucket
+    private static final int BUCKET_NANOS = 100000;
+    private static final int BUCKETS = 1000;
+
+    private final Scheduler scheduler;
+    //may be null
+    private AudioThread audio;
+
+    private final int[] frameTimes = new int[BUCKETS];
+    private long windowStart = -1;
+    private long lastFrameStart = -1;
+    private int hostFrames;
+    private int duplicatedFrames;
+    private long emulationNanos;
+    private long renderNanos;
+
+    private long windowFrame;
+    private long windowInstructions;
+    private long windowDropped;
+    private long lastSeenFrame;
+    private long windowUnderruns;
+
+    //last finished window
+    private double cpuHz;
+    private double timerHz;
+    private double hostFps;
+    private double frameTimeP50;
+    private double frameTimeP95;
+    private double frameTimeP99;
+    private double frameTimeMax;
+    private double emulationMillis;
+    private double renderMillis;
+    private long droppedFrames;
+    private int duplicated;
+    private double audioLatencyMillis;
+    private long underruns;
+
+    public Telemetry(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public void setAudio(AudioThread audio) {
+        this.audio = audio;
+        if (audio != null)
+            windowUnderruns = audio.getUnderruns();
+    }
+
+    //call once at the start of every host frame
+    public void beginFrame(long now) {
+        if (windowStart == -1) {
+            startWindow(now);
+            lastSeenFrame = scheduler.getFrame();
+        }
+
+        if (lastFrameStart != -1) {
+            int bucket = (int) Math.min((now - lastFrameStart) / BUCKET_NANOS, BUCKETS - 1);
+            frameTimes[bucket]++;
+            hostFrames++;
+        }
+        lastFrameStart = now;
+    }
+
+    public void addEmulationNanos(long nanos) {
+        emulationNanos += nanos;
+    }
+
+    //call once at the end of every host frame with the time drawing took
+    public void endFrame(long renderNanos) {
+        this.renderNanos += renderNanos;
+
+        long frame = scheduler.getFrame();
+        if (frame == lastSeenFrame)
+            duplicatedFrames++;
+        lastSeenFrame = frame;
+    }
+
+    /**
+     * Closes the window once it is long enough.
+     *
+     * @return true if a new summary is available
+     */
+    public boolean update(long now) {
+        if (windowStart == -1 || now - windowStart < WINDOW_NANOS)
+            return false;
+
+        double seconds = (now - windowStart) / 1e9;
+        long frame = scheduler.getFrame();
+        long instructions = scheduler.getInstructions();
+        long dropped = scheduler.getDroppedFrames();
+
+        //rewinding and loading states move the frame counter back
+        cpuHz = Math.max(0, instructions - windowInstructions) / seconds;
+        timerHz = Math.max(0, frame - windowFrame) / seconds;
+        hostFps = hostFrames / seconds;
+        frameTimeP50 = percentile(0.50);
+        frameTimeP95 = percentile(0.95);
+        frameTimeP99 = percentile(0.99);
+        frameTimeMax = percentile(1.0);
+        emulationMillis = hostFrames == 0 ? 0 : emulationNanos / 1e6 / hostFrames;
+        renderMillis = hostFrames == 0 ? 0 : renderNanos / 1e6 / hostFrames;
+        droppedFrames = dropped - windowDropped;
+        duplicated = duplicatedFrames;
+        if (audio != null) {
+            audioLatencyMillis = audio.getLatencyMillis();
+            underruns = audio.getUnderruns() - windowUnderruns;
+        }
+
+        startWindow(now);
+        return true;
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        windowFrame = scheduler.getFrame();
+        windowInstructions = scheduler.getInstructions();
+        windowDropped = scheduler.getDroppedFrames();
+        if (audio != null)
+            windowUnderruns = audio.getUnderruns();
+        for (int i = 0; i < BUCKETS; i++) {
+            frameTimes[i] = 0;
+        }
+        hostFrames = 0;
+        duplicatedFrames = 0;
+        emulationNanos = 0;
+        renderNanos = 0;
+    }
+
+    //in milliseconds, the upper end of the bucket
+    private double percentile(double fraction) {
+        if (hostFrames == 0)
+            return 0;
+
+        int rank = Math.max(1, (int) Math.ceil(hostFrames * fraction));
+        int seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += frameTimes[i];
+            if (seen >= rank)
+                return (i + 1) * BUCKET_NANOS / 1e6;
+        }
+        return BUCKETS * BUCKET_NANOS / 1e6;
+    }
+
+    public double getCpuHz() {
+        return cpuHz;
+    }
+
+    public int getTargetCpuHz() {
+        return scheduler.getClockHz();
+    }
+
+    public double getTimerHz() {
+        return timerHz;
+    }
+
+    public double getHostFps() {
+        return hostFps;
+    }
+
+    public double getFrameTimeP50() {
+        return frameTimeP50;
+    }
+
+    public double getFrameTimeP95() {
+        return frameTimeP95;
+    }
+
+    public double getFrameTimeP99() {
+        return frameTimeP99;
+    }
+
+    public double getFrameTimeMax() {
+        return frameTimeMax;
+    }
+
+    //per host frame
+    public double getEmulationMillis() {
+        return emulationMillis;
+    }
+
+    //per host frame
+    public double getRenderMillis() {
+        return renderMillis;
+    }
+
+    //emulated frames the scheduler gave up on because the host fell behind
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    //host frames drawn without a new emulated frame
+    public int getDuplicatedFrames() {
+        return duplicated;
+    }
+
+    //at the end of the last window, 0 without sound
+    public double getAudioLatencyMillis() {
+        return audioLatencyMillis;
+    }
+
+    //times the audio ran dry in the last window
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    public String[] toLines() {
+        return new String[]{
+                String.format(Locale.US, "cpu %.0f / %d Hz  timers %.1f / %d Hz", cpuHz, getTargetCpuHz(), timerHz, Scheduler.TIMER_HZ),
+                String.format(Locale.US, "host %.1f fps  frame p50 %.1f p95 %.1f p99 %.1f max %.1f ms",
+                        hostFps, frameTimeP50, frameTimeP95, frameTimeP99, frameTimeMax),
+                String.format(Locale.US, "emulate %.2f ms  render %.2f ms per frame", emulationMillis, renderMillis),
+                "dropped " + droppedFrames + "  duplicated " + duplicated,
+                String.format(Locale.US, "audio latency %.1f ms  underruns %d", audioLatencyMillis, underruns)
+        };
+    }
+
+    public static String csvHeader() {
+        return "cpu_hz,target_cpu_hz,timer_hz,host_fps,frame_p50_ms,frame_p95_ms,frame_p99_ms,frame_max_ms,"
+                + "emulate_ms,render_ms,dropped,duplicated,audio_latency_ms,underruns";
+    }
+
+    public String toCsv() {
+        return String.format(Locale.US, "%.0f,%d,%.2f,%.2f,%.1f,%.1f,%.1f,%.1f,%.3f,%.3f,%d,%d,%.1f,%d",
+                cpuHz, getTargetCpuHz(), timerHz, hostFps, frameTimeP50, frameTimeP95, frameTimeP99, frameTimeMax,
+                emulationMillis, renderMillis, droppedFrames, duplicated, audioLatencyMillis, underruns);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        String[] lines = toLines();
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) text.append(", ");
+            text.append(lines[i]);
+        }
+        return text.toString();
+    }
+}
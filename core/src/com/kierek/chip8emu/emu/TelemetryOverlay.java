@@ -0,0 +1,51 @@
+package com.kierek.chip8emu.emu;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+
+/**
+ * Draws the latest {@link Telemetry} summary in the top left corner, in screen pixels
+ * so it stays readable whatever the display is scaled to.
+ */
+public class TelemetryOverlay {
+
+    private static final float MARGIN = 4;
+
+    private final SpriteBatch batch;
+    //libGDX's built-in font, no asset needed
+    private final BitmapFont font;
+    private String[] lines = new String[0];
+    private int height;
+
+    public TelemetryOverlay(int width, int height) {
+        batch = new SpriteBatch();
+        font = new BitmapFont();
+        font.setColor(Color.YELLOW);
+        resize(width, height);
+    }
+
+    public void setLines(String[] lines) {
+        this.lines = lines;
+    }
+
+    public void render() {
+        batch.begin();
+        float y = height - MARGIN;
+        for (String line : lines) {
+            font.draw(batch, line, MARGIN, y);
+            y -= font.getLineHeight();
+        }
+        batch.end();
+    }
+
+    public void resize(int width, int height) {
+        this.height = height;
+        batch.getProjectionMatrix().setToOrtho2D(0, 0, width, height);
+    }
+
+    public void dispose() {
+        batch.dispose();
+        font.dispose();
+    }
+}
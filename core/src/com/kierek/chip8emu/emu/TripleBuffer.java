@@ -0,0 +1,39 @@
+package com.kierek.chip8emu.emu;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands complete frames from the emulation thread to the render thread without either of them waiting.
+ * The producer owns the back buffer, the consumer the front one, and the third is swapped
+ * between them atomically together with a flag saying whether it holds a frame the consumer hasn't seen.
+ */
+public class TripleBuffer {
+
+    private static final int INDEX = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final FrameBuffer[] buffers = {new FrameBuffer(), new FrameBuffer(), new FrameBuffer()};
+
+    private final AtomicInteger middle = new AtomicInteger(1);
+    //only touched by the producer
+    private int back = 0;
+    //only touched by the consumer
+    private int front = 2;
+
+    //buffer the producer writes the next frame into
+    public FrameBuffer getBackBuffer() {
+        return buffers[back];
+    }
+
+    //makes the back buffer the newest frame, the consumer may still skip it if a newer one follows
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    //newest published frame, or the same one as last time if nothing new was published
+    public FrameBuffer acquire() {
+        if ((middle.get() & FRESH) != 0)
+            front = middle.getAndSet(front) & INDEX;
+        return buffers[front];
+    }
+}
@@ -0,0 +1,47 @@
+package com.kierek.chip8emu.emu;
+
+/**
+ * xorshift64* generator: three shifts and a multiply per number, no allocation and no synchronization.
+ * Seeds are spread with splitmix64 first, so nearby seeds such as 0, 1, 2 still give unrelated sequences.
+ */
+public class XorShiftRandom implements RandomSource {
+
+    private long state;
+
+    public XorShiftRandom(long seed) {
+        setSeed(seed);
+    }
+
+    @Override
+    public int nextByte() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        //the top bits of the product are the best ones
+        return (int) ((x * 0x2545F4914F6CDD1DL) >>> 56);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        //zero would only ever produce zeros
+        state = z != 0 ? z : 0x9E3779B97F4A7C15L;
+    }
+
+    @Override
+    public long getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(long state) {
+        if (state == 0)
+            throw new IllegalArgumentException("xorshift state can't be 0");
+        this.state = state;
+    }
+}
@@ -4,8 +4,10 @@ import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
 import com.badlogic.gdx.InputProcessor;
 import com.badlogic.gdx.Screen;
-import com.badlogic.gdx.files.FileHandle;
 import com.kierek.chip8emu.Chip8Emu;
+import com.kierek.chip8emu.emu.RomLibrary;
+
+import java.util.List;
 
 /**
  * Created by kierek on 26.05.17.
@@ -13,7 +15,12 @@ import com.kierek.chip8emu.Chip8Emu;
 
 public class GameChooser implements Screen, InputProcessor {
 
-    private FileHandle[] games;
+    //one game per digit key
+    private static final int PAGE_SIZE = 10;
+
+    //what was listed, keys pick from this even if a scan finishes in between
+    private List<RomLibrary.Entry> games;
+    private int page;
     private Chip8Emu emu;
 
     public GameChooser(Chip8Emu emu) {
@@ -23,12 +30,36 @@ public class GameChooser implements Screen, InputProcessor {
 
     @Override
     public void show() {
-        System.out.println("Choose game: ");
+        //nothing is animated here, only redraw when input or the system asks for it
+        Gdx.graphics.setContinuousRendering(false);
+
+        list();
+    }
+
+    //called after a scan, lists the games again if anything changed
+    public void refresh() {
+        if (emu.getLibrary().getEntries() != games)
+            list();
+    }
+
+    private void list() {
+        games = emu.getLibrary().getEntries();
+        if (games.isEmpty()) {
+            System.out.println("Looking for games...");
+            return;
+        }
 
-        games = Gdx.files.internal("roms").list();
-        for (int i = 0; i < games.length; i++) {
-            FileHandle file = games[i];
-            System.out.println(i + ": " + file.name());
+        int pages = (games.size() + PAGE_SIZE - 1) / PAGE_SIZE;
+        page = Math.min(page, pages - 1);
+        System.out.println("Choose game" + (pages > 1 ? " (page " + (page + 1) + "/" + pages + ", left/right for more)" : "") + ": ");
+
+        RomLibrary library = emu.getLibrary();
+        int first = page * PAGE_SIZE;
+        for (int i = first; i < Math.min(first + PAGE_SIZE, games.size()); i++) {
+            RomLibrary.Entry game = games.get(i);
+            System.out.println((i - first) + ": " + game.getName());
+            //whatever gets picked is already in memory by the time the key goes up
+            library.preload(game);
         }
     }
 
@@ -67,22 +98,33 @@ public class GameChooser implements Screen, InputProcessor {
         return false;
     }
 
-    //it wold be nice to make it work with more than 9 games
-    //maybe later
-
     @Override
     public boolean keyUp(int keycode) {
-        // 7 - 16 lub 144-153
-
-        for (int i = 0; i < games.length; i++) {
-            if (keycode == 7 + i || keycode == 144 + i) {
-                emu.startGame(games[i].path());
-            }
+        if (keycode == Input.Keys.LEFT || keycode == Input.Keys.PAGE_UP) {
+            showPage(page - 1);
+        } else if (keycode == Input.Keys.RIGHT || keycode == Input.Keys.PAGE_DOWN) {
+            showPage(page + 1);
+        } else if (keycode >= Input.Keys.NUM_0 && keycode <= Input.Keys.NUM_9) {
+            choose(keycode - Input.Keys.NUM_0);
+        } else if (keycode >= Input.Keys.NUMPAD_0 && keycode <= Input.Keys.NUMPAD_9) {
+            choose(keycode - Input.Keys.NUMPAD_0);
         }
 
         return true;
     }
 
+    private void showPage(int next) {
+        if (next < 0 || next * PAGE_SIZE >= games.size()) return;
+        page = next;
+        list();
+    }
+
+    private void choose(int digit) {
+        int index = page * PAGE_SIZE + digit;
+        if (index < games.size())
+            emu.startGame(games.get(index));
+    }
+
     @Override
     public boolean keyTyped(char character) {
         return false;
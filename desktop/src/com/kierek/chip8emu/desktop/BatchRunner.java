@@ -0,0 +1,375 @@
+package com.kierek.chip8emu.desktop;
+
+import com.kierek.chip8emu.desktop.aot.RomCompiler;
+import com.kierek.chip8emu.emu.BlockCacheEngine;
+import com.kierek.chip8emu.emu.CompiledEngine;
+import com.kierek.chip8emu.emu.ExecutionEngine;
+import com.kierek.chip8emu.emu.FileRomSource;
+import com.kierek.chip8emu.emu.FrameBuffer;
+import com.kierek.chip8emu.emu.FrameCapture;
+import com.kierek.chip8emu.emu.FrameEncoder;
+import com.kierek.chip8emu.emu.GifEncoder;
+import com.kierek.chip8emu.emu.ImageSequenceEncoder;
+import com.kierek.chip8emu.emu.InputLog;
+import com.kierek.chip8emu.emu.KeyState;
+import com.kierek.chip8emu.emu.Machine;
+import com.kierek.chip8emu.emu.Platform;
+import com.kierek.chip8emu.emu.ProfilingEngine;
+import com.kierek.chip8emu.emu.SaveState;
+import com.kierek.chip8emu.emu.Scheduler;
+import com.kierek.chip8emu.emu.SoundOutput;
+import com.kierek.chip8emu.emu.SwitchEngine;
+import com.kierek.chip8emu.emu.TableEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs ROMs headless, many machines at once spread over all cores, and prints a framebuffer hash
+ * and the timing of every instance. Instances share nothing mutable, so throughput grows with the core count.
+ * <pre>
+ * BatchRunner [options] [rom files or directories, default roms]
+ *   --frames N      frames to run every instance for, default 3600 (one minute of machine time),
+ *                   or a second past the last event of a replay
+ *   --instances N   instances per ROM, default 1
+ *   --threads N     worker threads, default one per core
+ *   --engine NAME   switch, table, blocks or compiled, default table
+ *   --clock HZ      instructions per second, default 500, a replay uses its own
+ *   --seed N        seed of the CXNN random numbers, instance i uses seed + i, default 0
+ *   --input FILE    input script every instance plays, see InputLog
+ *   --fuzz          random key presses instead, different for every instance
+ *   --replay FILE   binary input log recorded in the app, played from its start state with its clock
+ *   --profile DIR   run on the profiling engine and write ROM.INSTANCE.json and .folded profiles into DIR
+ *   --no-idle-skip  execute every turn of idle loops instead of skipping to the end of the frame
+ *   --capture DIR   write what every instance shows into DIR, as ROM.INSTANCE.gif or a ROM.INSTANCE directory of frames
+ *   --capture-format gif, png or raw, default gif
+ *   --capture-scale N  pixels per high resolution pixel, default 4
+ * </pre>
+ * Output has one line per instance, in ROM and instance order, followed by the totals.
+ * The idle column is the share of instructions skipped in idle loops.
+ */
+public class BatchRunner {
+
+    private static final String TAG = "BatchRunner";
+
+    private static final List<String> ENGINES = Arrays.asList("switch", "table", "blocks", "compiled");
+
+    //a fuzzed key changes this often
+    private static final int FUZZ_INTERVAL = 10;
+
+    private static final int DEFAULT_FRAMES = 3600;
+
+    private static final List<String> CAPTURE_FORMATS = Arrays.asList("gif", "png", "raw");
+
+    //-1 plays a replay until a second after its last event
+    private int frames = -1;
+    private int instances = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String engine = "table";
+    private int clockHz = Scheduler.DEFAULT_CLOCK_HZ;
+    private long seed;
+    private InputLog input;
+    private boolean fuzz;
+    private boolean idleSkipping = true;
+    private boolean replay;
+    private File profiles;
+    private File captures;
+    private String captureFormat = "gif";
+    private int captureScale = 4;
+    private final List<File> roms = new ArrayList<File>();
+
+    private static class Result {
+        String rom;
+        int instance;
+        int frames;
+        long hash;
+        long nanos;
+        long instructions;
+        long skipped;
+    }
+
+    public static void main(String[] args) throws Exception {
+        BatchRunner runner = new BatchRunner();
+        try {
+            runner.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(TAG + ": " + e.getMessage());
+            System.exit(2);
+        }
+        runner.run();
+    }
+
+    private void parse(String[] args) {
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--fuzz")) {
+                fuzz = true;
+            } else if (arg.equals("--no-idle-skip")) {
+                idleSkipping = false;
+            } else if (arg.startsWith("--")) {
+                if (i + 1 == args.length)
+                    throw new IllegalArgumentException(arg + " needs a value");
+                String value = args[++i];
+                if (arg.equals("--frames")) frames = Integer.parseInt(value);
+                else if (arg.equals("--instances")) instances = Integer.parseInt(value);
+                else if (arg.equals("--threads")) threads = Integer.parseInt(value);
+                else if (arg.equals("--engine")) engine = value;
+                else if (arg.equals("--clock")) clockHz = Integer.parseInt(value);
+                else if (arg.equals("--seed")) seed = Long.parseLong(value);
+                else if (arg.equals("--input")) input = InputLog.parse(readText(new File(value)));
+                else if (arg.equals("--profile")) profiles = new File(value);
+                else if (arg.equals("--capture")) captures = new File(value);
+                else if (arg.equals("--capture-format")) captureFormat = value;
+                else if (arg.equals("--capture-scale")) captureScale = Integer.parseInt(value);
+                else if (arg.equals("--replay")) {
+                    input = InputLog.fromBytes(readBytes(new File(value)));
+                    replay = true;
+                }
+                else throw new IllegalArgumentException("unknown option " + arg);
+            } else {
+                paths.add(arg);
+            }
+        }
+
+        if (paths.isEmpty())
+            paths.add("roms");
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] files = file.listFiles();
+                Arrays.sort(files);
+                for (File rom : files) {
+                    if (rom.isFile()) roms.add(rom);
+                }
+            } else {
+                roms.add(file);
+            }
+        }
+
+        if (input != null && fuzz)
+            throw new IllegalArgumentException("--input or --replay and --fuzz don't go together");
+        if (profiles != null && !profiles.isDirectory() && !profiles.mkdirs())
+            throw new IllegalArgumentException("can't create " + profiles);
+        if (captures != null && !captures.isDirectory() && !captures.mkdirs())
+            throw new IllegalArgumentException("can't create " + captures);
+        if (!CAPTURE_FORMATS.contains(captureFormat))
+            throw new IllegalArgumentException("unknown capture format " + captureFormat + ", expected one of " + CAPTURE_FORMATS);
+        if (captureScale <= 0)
+            throw new IllegalArgumentException("capture scale has to be positive: " + captureScale);
+
+        if (frames == -1 && !(replay && input.size() > 0))
+            frames = DEFAULT_FRAMES;
+        //fail early instead of in every worker
+        if (!ENGINES.contains(engine))
+            throw new IllegalArgumentException("unknown engine " + engine + ", expected one of " + ENGINES);
+        if (clockHz <= 0)
+            throw new IllegalArgumentException("clock has to be positive: " + clockHz);
+    }
+
+    private void run() throws InterruptedException, ExecutionException {
+        final FileRomSource source = new FileRomSource(new File("."));
+        List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+        for (final File rom : roms) {
+            final byte[] image = source.read(rom.getPath());
+            for (int i = 0; i < instances; i++) {
+                final int instance = i;
+                tasks.add(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        return runInstance(rom.getName(), image, instance);
+                    }
+                });
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Future<Result>> results;
+        try {
+            results = pool.invokeAll(tasks);
+        } finally {
+            pool.shutdown();
+        }
+        long wall = System.nanoTime() - start;
+
+        long busy = 0;
+        long totalFrames = 0;
+        System.out.println("rom instance hash ms frames/s idle%");
+        for (Future<Result> future : results) {
+            Result result = future.get();
+            busy += result.nanos;
+            totalFrames += result.frames;
+            System.out.println(result.rom + " " + result.instance + " " + String.format("%016x", result.hash)
+                    + " " + result.nanos / 1000000 + " " + (long) (result.frames / (result.nanos / 1e9))
+                    + " " + String.format("%.1f", result.skipped * 100.0 / Math.max(1, result.instructions)));
+        }
+
+        System.out.println(tasks.size() + " instances, " + totalFrames + " frames on " + threads + " threads in "
+                + wall / 1000000 + " ms, " + (long) (totalFrames / (wall / 1e9)) + " frames/s, "
+                + String.format("%.1f", busy / (double) wall) + "x parallel");
+    }
+
+    private Result runInstance(String name, byte[] image, int instance) {
+        KeyState keys = new KeyState();
+        ProfilingEngine profiler = profiles != null ? new ProfilingEngine() : null;
+        Machine machine = new Machine(keys, SoundOutput.NONE, profiler != null ? profiler : createEngine(image));
+        machine.getProcessor().setRandomSeed(seed + instance);
+        machine.getProcessor().setIdleSkipping(idleSkipping);
+        machine.getProcessor().setPlatform(Platform.detect(name, image));
+        machine.loadROM(image);
+        machine.getScheduler().setClockHz(clockHz);
+        if (replay) {
+            machine.getScheduler().setClockHz(input.getClockHz());
+            if (input.getStartState() != null)
+                SaveState.load(machine, input.getStartState());
+        }
+
+        InputLog log = input;
+        if (fuzz)
+            log = fuzzInput(seed + instance);
+        InputLog.Player player = log == null ? null : new InputLog.Player(log);
+
+        final Scheduler scheduler = machine.getScheduler();
+        final FrameCapture capture = captures != null ? startCapture(name + "." + instance) : null;
+        if (capture != null) {
+            final FrameBuffer frameBuffer = machine.getFrameBuffer();
+            scheduler.setFrameListener(new Runnable() {
+                @Override
+                public void run() {
+                    capture.capture(frameBuffer, scheduler.getFrame());
+                }
+            });
+        }
+
+        int count = frames;
+        if (count == -1)
+            count = (int) (input.getFrame(input.size() - 1) - scheduler.getFrame()) + Scheduler.TIMER_HZ;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            if (player != null)
+                player.apply(scheduler.getFrame(), keys);
+            machine.runFrames(1);
+        }
+        if (capture != null) {
+            try {
+                capture.stop();
+            } catch (IOException e) {
+                throw new IllegalStateException("can't capture " + name + "." + instance, e);
+            }
+        }
+
+        Result result = new Result();
+        result.nanos = System.nanoTime() - start;
+        result.rom = name;
+        result.instance = instance;
+        result.frames = count;
+        result.instructions = scheduler.getInstructions();
+        result.skipped = machine.getProcessor().getSkippedInstructions();
+        if (profiler != null) {
+            String prefix = name + "." + instance;
+            writeText(new File(profiles, prefix + ".json"), profiler.toJson());
+            writeText(new File(profiles, prefix + ".folded"), profiler.toFoldedStacks());
+        }
+        result.hash = hash(machine.getFrameBuffer());
+        return result;
+    }
+
+    //a clip that skips frames is no use for comparing runs, so the instance waits for the encoder instead
+    private FrameCapture startCapture(String prefix) {
+        FrameEncoder encoder;
+        try {
+            if (captureFormat.equals("gif")) {
+                File file = new File(captures, prefix + ".gif");
+                encoder = new GifEncoder(new BufferedOutputStream(new FileOutputStream(file)), captureScale);
+            } else {
+                ImageSequenceEncoder.Format format = captureFormat.equals("png")
+                        ? ImageSequenceEncoder.Format.PNG : ImageSequenceEncoder.Format.RAW;
+                encoder = new ImageSequenceEncoder(new File(captures, prefix), format, captureScale);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("can't capture " + prefix, e);
+        }
+
+        FrameCapture capture = new FrameCapture(encoder);
+        capture.setBlocking(true);
+        capture.start();
+        return capture;
+    }
+
+    private InputLog fuzzInput(long seed) {
+        Random random = new Random(seed);
+        InputLog log = new InputLog();
+        for (int frame = 0; frame < frames; frame += FUZZ_INTERVAL) {
+            log.add(frame, random.nextInt(16), random.nextBoolean());
+        }
+        return log;
+    }
+
+    private ExecutionEngine createEngine(byte[] image) {
+        if (engine.equals("switch")) return new SwitchEngine();
+        if (engine.equals("table")) return new TableEngine();
+        if (engine.equals("blocks")) return new BlockCacheEngine();
+        if (engine.equals("compiled")) return new CompiledEngine(RomCompiler.compile(image));
+        throw new IllegalArgumentException("unknown engine " + engine);
+    }
+
+    //64-bit FNV-1a over the visible rows of plane 0, then of plane 1 if anything was drawn there
+    static long hash(FrameBuffer frameBuffer) {
+        long hash = 0xcbf29ce484222325L;
+        int words = frameBuffer.isHighResolution() ? FrameBuffer.WORDS : 1;
+        for (int plane = 0; plane < FrameBuffer.PLANES; plane++) {
+            long lit = 0;
+            for (int y = 0; y < frameBuffer.getHeight(); y++) {
+                for (int word = 0; word < words; word++) {
+                    lit |= frameBuffer.getWord(plane, y, word);
+                }
+            }
+            if (plane > 0 && lit == 0) break;
+
+            for (int y = 0; y < frameBuffer.getHeight(); y++) {
+                for (int word = 0; word < words; word++) {
+                    long bits = frameBuffer.getWord(plane, y, word);
+                    for (int i = 0; i < 8; i++) {
+                        hash ^= (bits >>> (i * 8)) & 0xFF;
+                        hash *= 0x100000001b3L;
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static byte[] readBytes(File file) {
+        try {
+            return Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("can't read " + file, e);
+        }
+    }
+
+    private static void writeText(File file, String text) {
+        try {
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("can't write " + file, e);
+        }
+    }
+
+    private static String readText(File file) {
+        return new String(readBytes(file), StandardCharsets.UTF_8);
+    }
+}
@@ -4,13 +4,31 @@ import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import com.kierek.chip8emu.Chip8Emu;
 
+import java.util.Arrays;
+
 public class DesktopLauncher {
 	public static void main (String[] arg) {
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
 
 		config.width = 640;
 		config.height = 320;
+		//4 buffers of 512 samples instead of 9, the emulator keeps its own queue short as well
+		config.audioDeviceBufferCount = 4;
+
+		//--threaded runs the emulation on its own thread
+		boolean threaded = Arrays.asList(arg).contains("--threaded");
+
+		Chip8Emu emu = new Chip8Emu(threaded);
+
+		//--telemetry logs speed and frame pacing every second and appends it to telemetry.csv
+		emu.setTelemetryLogged(Arrays.asList(arg).contains("--telemetry"));
+
+		//--run-ahead=N shows the game N frames ahead to hide its input lag
+		for (String option : arg) {
+			if (option.startsWith("--run-ahead="))
+				emu.setRunAheadFrames(Integer.parseInt(option.substring("--run-ahead=".length())));
+		}
 
-		new LwjglApplication(new Chip8Emu(), config);
+		new LwjglApplication(emu, config);
 	}
 }
@@ -0,0 +1,141 @@
+package com.kierek.chip8emu.desktop;
+
+import com.kierek.chip8emu.emu.FileRomSource;
+import com.kierek.chip8emu.emu.ProgramAnalysis;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Prints what {@link ProgramAnalysis} finds in ROMs: a listing of code, sprites and data with the blocks,
+ * subroutines and loops marked, or only the totals.
+ * <pre>
+ * Disassembler [--summary] [rom files or directories, default roms]
+ *   --summary   one line per ROM instead of the listing
+ * </pre>
+ * Labels are {@code sub_NNN} for subroutine entries and {@code LNNN} for other blocks, sprite rows are drawn with #.
+ * The time is that of a fresh analysis, bypassing the cache.
+ */
+public class Disassembler {
+
+    private static final String TAG = "Disassembler";
+
+    //data bytes per line
+    private static final int DATA_LINE = 8;
+
+    private boolean summary;
+    private final List<File> roms = new ArrayList<File>();
+
+    public static void main(String[] args) {
+        Disassembler disassembler = new Disassembler();
+        try {
+            disassembler.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(TAG + ": " + e.getMessage());
+            System.exit(2);
+        }
+        disassembler.run();
+    }
+
+    private void parse(String[] args) {
+        List<String> paths = new ArrayList<String>();
+        for (String arg : args) {
+            if (arg.equals("--summary")) summary = true;
+            else if (arg.startsWith("--")) throw new IllegalArgumentException("unknown option " + arg);
+            else paths.add(arg);
+        }
+
+        if (paths.isEmpty())
+            paths.add("roms");
+        for (String path : paths) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                File[] files = file.listFiles();
+                Arrays.sort(files);
+                for (File rom : files) {
+                    if (rom.isFile()) roms.add(rom);
+                }
+            } else {
+                roms.add(file);
+            }
+        }
+    }
+
+    private void run() {
+        FileRomSource source = new FileRomSource(new File("."));
+        for (File rom : roms) {
+            byte[] image = source.read(rom.getPath());
+            long start = System.nanoTime();
+            ProgramAnalysis analysis = ProgramAnalysis.analyze(image);
+            long nanos = System.nanoTime() - start;
+
+            System.out.println(String.format(Locale.US, "; %s: %d bytes, %d code, %d sprite, %d data, %d blocks, %d subroutines, %d loops, %.2f ms",
+                    rom.getName(), image.length, analysis.getCodeBytes(), analysis.getSpriteBytes(), analysis.getDataBytes(),
+                    analysis.getBlocks().size(), analysis.getSubroutines().size(), analysis.getLoops().size(), nanos / 1e6));
+            if (!summary) {
+                printListing(analysis);
+                System.out.println();
+            }
+        }
+    }
+
+    private void printListing(ProgramAnalysis analysis) {
+        Map<Integer, String> comments = new HashMap<Integer, String>();
+        for (ProgramAnalysis.Loop loop : analysis.getLoops()) {
+            String comment = comments.get(loop.header);
+            comments.put(loop.header, (comment == null ? "loop from " : comment + ", ") + hex(loop.branch, 3));
+        }
+        boolean[] entries = new boolean[0x200 + analysis.getRomSize()];
+        for (ProgramAnalysis.Subroutine subroutine : analysis.getSubroutines()) {
+            entries[subroutine.entry] = true;
+        }
+
+        int end = 0x200 + analysis.getRomSize();
+        int address = 0x200;
+        while (address < end) {
+            byte type = analysis.getType(address);
+            if (type == ProgramAnalysis.CODE) {
+                if (analysis.getBlockAt(address) != null) {
+                    String comment = comments.get(address);
+                    System.out.println((entries[address] ? "sub_" : "L") + hex(address, 3) + ":"
+                            + (comment != null ? "  ; " + comment : ""));
+                }
+                //F000 NNNN
+                int length = analysis.getByte(address) == 0xF0 && analysis.getByte(address + 1) == 0 ? 4 : 2;
+                length = Math.min(length, end - address);
+                StringBuilder bytes = new StringBuilder();
+                for (int i = 0; i < length; i++) {
+                    bytes.append(hex(analysis.getByte(address + i), 2));
+                }
+                System.out.println(String.format(Locale.US, "  %s  %-8s  %s", hex(address, 3), bytes, analysis.disassemble(address)));
+                address += length;
+            } else if (type == ProgramAnalysis.SPRITE) {
+                int value = analysis.getByte(address);
+                StringBuilder row = new StringBuilder();
+                for (int bit = 7; bit >= 0; bit--) {
+                    row.append((value >>> bit & 1) != 0 ? '#' : '.');
+                }
+                System.out.println(String.format(Locale.US, "  %s  %-8s  DB #%s  ; %s", hex(address, 3), hex(value, 2), hex(value, 2), row));
+                address++;
+            } else {
+                StringBuilder line = new StringBuilder();
+                int from = address;
+                while (address < end && address - from < DATA_LINE
+                        && (analysis.getType(address) == ProgramAnalysis.DATA || analysis.getType(address) == ProgramAnalysis.OPERAND)) {
+                    line.append(line.length() == 0 ? "DB #" : ", #").append(hex(analysis.getByte(address), 2));
+                    address++;
+                }
+                System.out.println("  " + hex(from, 3) + "            " + line);
+            }
+        }
+    }
+
+    private static String hex(int value, int digits) {
+        return String.format(Locale.US, "%0" + digits + "X", value);
+    }
+}
@@ -0,0 +1,360 @@
+package com.kierek.chip8emu.desktop.aot;
+
+import com.kierek.chip8emu.emu.BlockCacheEngine;
+import com.kierek.chip8emu.emu.CompiledProgram;
+import com.kierek.chip8emu.emu.TableEngine;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Translates a ROM image into a JVM class ahead of time, one method per reachable basic block.
+ * Blocks are found by following fall-through, jump, call and skip edges from 0x200,
+ * so code only reachable through BNNN is left to the interpreter, and so is everything past the first 4 KB of XO-CHIP ROMs.
+ * <p>
+ * Loads, register moves and ALU ops without flags are emitted inline, the rest calls back into the interpreter.
+ * HotSpot can then inline and register-allocate whole game loops. Desktop only, Android can't load JVM bytecode.
+ */
+public class RomCompiler {
+
+    private static final String BASE = "com/kierek/chip8emu/emu/CompiledProgram";
+    private static final String PACKAGE = "com/kierek/chip8emu/desktop/aot/";
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    //compiled code has to fit CompiledProgram's table
+    private static final int COMPILED_LIMIT = 0x1000;
+
+    private final int[] image = new int[0x10000];
+    private final int romEnd;
+
+    private final int[] blockLength = new int[COMPILED_LIMIT];
+    private final List<Integer> blockStarts = new ArrayList<Integer>();
+
+    private RomCompiler(byte[] rom) {
+        for (int i = 0; i < rom.length; i++) {
+            image[i + 0x200] = rom[i] & 0xFF;
+        }
+        romEnd = 0x200 + rom.length;
+    }
+
+    public static CompiledProgram compile(byte[] rom) {
+        RomCompiler compiler = new RomCompiler(rom);
+        compiler.discover();
+
+        String name = PACKAGE + "CompiledRom" + classCounter.incrementAndGet();
+        byte[] bytecode = compiler.generate(name);
+
+        try {
+            Class<?> type = new Loader(CompiledProgram.class.getClassLoader()).define(name.replace('/', '.'), bytecode);
+            CompiledProgram program = (CompiledProgram) type.getDeclaredConstructor().newInstance();
+            for (int start : compiler.blockStarts) {
+                program.defineBlock(start, compiler.blockLength[start]);
+            }
+            return program;
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean isCode(int address) {
+        return address >= 0x200 && address + 1 < Math.min(romEnd, COMPILED_LIMIT);
+    }
+
+    private int opcodeAt(int address) {
+        return (image[address] << 8) | image[address + 1];
+    }
+
+    //where a taken skip at address - 2 continues, F000 NNNN is skipped as a whole
+    private int skipTarget(int address) {
+        return address + (opcodeAt(address) == 0xF000 ? 4 : 2);
+    }
+
+    private void discover() {
+        boolean[] queued = new boolean[COMPILED_LIMIT];
+        int[] work = new int[COMPILED_LIMIT];
+        int pending = 0;
+
+        work[pending++] = 0x200;
+        queued[0x200] = true;
+
+        while (pending > 0) {
+            int start = work[--pending];
+
+            //same block boundaries as BlockCacheEngine
+            int address = start;
+            int length = 0;
+            int kind;
+            do {
+                kind = TableEngine.decode(opcodeAt(address)) & 0xFF;
+                length++;
+                address += 2;
+            } while (!TableEngine.endsBlock(kind) && length < BlockCacheEngine.MAX_BLOCK_LENGTH && isCode(address));
+
+            blockLength[start] = length;
+            blockStarts.add(start);
+
+            int last = address - 2;
+            int nnn = opcodeAt(last) & 0xFFF;
+            int[] successors;
+            switch (kind) {
+                case TableEngine.JP:
+                    successors = new int[]{nnn};
+                    break;
+                case TableEngine.CALL:
+                    successors = new int[]{nnn, address};
+                    break;
+                case TableEngine.SE_VX_NN:
+                case TableEngine.SNE_VX_NN:
+                case TableEngine.SE_VX_VY:
+                case TableEngine.SNE_VX_VY:
+                case TableEngine.SKP:
+                case TableEngine.SKNP:
+                    successors = new int[]{address, skipTarget(address)};
+                    break;
+                case TableEngine.LD_I_LONG:
+                    successors = new int[]{address + 2};
+                    break;
+                case TableEngine.RET:
+                case TableEngine.JP_V0:
+                case TableEngine.EXIT:
+                    successors = new int[0];
+                    break;
+                default:
+                    successors = new int[]{address};
+            }
+
+            for (int next : successors) {
+                if (isCode(next) && !queued[next]) {
+                    queued[next] = true;
+                    work[pending++] = next;
+                }
+            }
+        }
+
+        Integer[] sorted = blockStarts.toArray(new Integer[blockStarts.size()]);
+        Arrays.sort(sorted);
+        blockStarts.clear();
+        blockStarts.addAll(Arrays.asList(sorted));
+    }
+
+    private byte[] generate(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name, null, BASE, null);
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, BASE, "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        for (int start : blockStarts) {
+            generateBlock(cw, name, start);
+        }
+        generateDispatch(cw, name);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static String blockName(int start) {
+        return "block_" + Integer.toHexString(start);
+    }
+
+    //runBlock(pc) is a lookupswitch over block start addresses
+    private void generateDispatch(ClassWriter cw, String name) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "runBlock", "(I)I", null, null);
+        mv.visitCode();
+
+        int[] keys = new int[blockStarts.size()];
+        Label[] labels = new Label[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = blockStarts.get(i);
+            labels[i] = new Label();
+        }
+        Label unknown = new Label();
+
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitLookupSwitchInsn(unknown, keys, labels);
+        for (int i = 0; i < keys.length; i++) {
+            mv.visitLabel(labels[i]);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, blockName(keys[i]), "()I", false);
+            mv.visitInsn(Opcodes.IRETURN);
+        }
+        mv.visitLabel(unknown);
+        mv.visitInsn(Opcodes.ICONST_M1);
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateBlock(ClassWriter cw, String name, int start) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, blockName(start), "()I", null, null);
+        mv.visitCode();
+
+        //local 1 holds the register array for the whole block
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, BASE, "v", "[I");
+        mv.visitVarInsn(Opcodes.ASTORE, 1);
+
+        int address = start;
+        for (int i = 0; i < blockLength[start]; i++, address += 2) {
+            int opcode = opcodeAt(address);
+            int decoded = TableEngine.decode(opcode);
+            int x = (decoded >>> 8) & 0xF;
+            int y = (decoded >>> 12) & 0xF;
+            int nnn = decoded >>> 16;
+            int nn = nnn & 0xFF;
+
+            switch (decoded & 0xFF) {
+                case TableEngine.NOP:
+                    break;
+                case TableEngine.LD_VX_NN:
+                    loadRegisters(mv);
+                    push(mv, x);
+                    push(mv, nn);
+                    mv.visitInsn(Opcodes.IASTORE);
+                    break;
+                case TableEngine.ADD_VX_NN:
+                    loadRegisters(mv);
+                    push(mv, x);
+                    loadRegister(mv, x);
+                    push(mv, nn);
+                    mv.visitInsn(Opcodes.IADD);
+                    push(mv, 0xFF);
+                    mv.visitInsn(Opcodes.IAND);
+                    mv.visitInsn(Opcodes.IASTORE);
+                    break;
+                case TableEngine.LD_VX_VY:
+                case TableEngine.OR_VX_VY:
+                    //OR behaves like LD in the interpreter, keep it that way
+                    loadRegisters(mv);
+                    push(mv, x);
+                    loadRegister(mv, y);
+                    mv.visitInsn(Opcodes.IASTORE);
+                    break;
+                case TableEngine.AND_VX_VY:
+                case TableEngine.XOR_VX_VY:
+                    loadRegisters(mv);
+                    push(mv, x);
+                    loadRegister(mv, x);
+                    loadRegister(mv, y);
+                    mv.visitInsn((decoded & 0xFF) == TableEngine.AND_VX_VY ? Opcodes.IAND : Opcodes.IXOR);
+                    mv.visitInsn(Opcodes.IASTORE);
+                    break;
+                case TableEngine.LD_I:
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    push(mv, nnn);
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BASE, "setAddressPointer", "(I)V", false);
+                    break;
+                case TableEngine.JP:
+                    push(mv, nnn);
+                    mv.visitInsn(Opcodes.IRETURN);
+                    break;
+                case TableEngine.SE_VX_NN:
+                    loadRegister(mv, x);
+                    push(mv, nn);
+                    skipIf(mv, Opcodes.IF_ICMPEQ, address + 2, skipTarget(address + 2));
+                    break;
+                case TableEngine.SNE_VX_NN:
+                    loadRegister(mv, x);
+                    push(mv, nn);
+                    skipIf(mv, Opcodes.IF_ICMPNE, address + 2, skipTarget(address + 2));
+                    break;
+                case TableEngine.SE_VX_VY:
+                    loadRegister(mv, x);
+                    loadRegister(mv, y);
+                    skipIf(mv, Opcodes.IF_ICMPEQ, address + 2, skipTarget(address + 2));
+                    break;
+                case TableEngine.SNE_VX_VY:
+                    loadRegister(mv, x);
+                    loadRegister(mv, y);
+                    skipIf(mv, Opcodes.IF_ICMPNE, address + 2, skipTarget(address + 2));
+                    break;
+                default:
+                    mv.visitVarInsn(Opcodes.ALOAD, 0);
+                    push(mv, address);
+                    push(mv, opcode);
+                    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BASE, "interpret", "(II)V", false);
+
+                    //calls, returns and the rest of the block enders decide the next address themselves
+                    if (TableEngine.endsBlock(decoded & 0xFF)) {
+                        mv.visitVarInsn(Opcodes.ALOAD, 0);
+                        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BASE, "getProgramCounter", "()I", false);
+                        mv.visitInsn(Opcodes.IRETURN);
+                    }
+            }
+        }
+
+        //block was cut by its length, not by a control transfer
+        if (!TableEngine.endsBlock(TableEngine.decode(opcodeAt(address - 2)) & 0xFF)) {
+            push(mv, address);
+            mv.visitInsn(Opcodes.IRETURN);
+        }
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void loadRegisters(MethodVisitor mv) {
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+    }
+
+    private static void loadRegister(MethodVisitor mv, int index) {
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        push(mv, index);
+        mv.visitInsn(Opcodes.IALOAD);
+    }
+
+    //expects two ints on the stack, returns skipped when the comparison holds and next otherwise
+    private static void skipIf(MethodVisitor mv, int comparison, int next, int skipped) {
+        Label skip = new Label();
+        mv.visitJumpInsn(comparison, skip);
+        push(mv, next);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitLabel(skip);
+        push(mv, skipped);
+        mv.visitInsn(Opcodes.IRETURN);
+    }
+
+    private static void push(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytecode) {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}